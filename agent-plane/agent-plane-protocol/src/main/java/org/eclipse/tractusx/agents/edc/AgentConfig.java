@@ -19,8 +19,12 @@ package org.eclipse.tractusx.agents.edc;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.system.configuration.Config;
 
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * typed wrapper around the
@@ -33,6 +37,11 @@ public class AgentConfig {
 
     public static String ASSET_FILE_PROPERTY = "cx.agent.asset.file";
 
+    public static String RDF_STORE_PROPERTY = "cx.agent.rdf.store";
+
+    public static String RDF_STORE_RELOAD_PROPERTY = "cx.agent.rdf.store.reload";
+    public static boolean DEFAULT_RDF_STORE_RELOAD = false;
+
     public static String ACCESS_POINT_PROPERTY = "cx.agent.accesspoint.name";
     public static String DEFAULT_ACCESS_POINT = "api";
 
@@ -52,20 +61,86 @@ public class AgentConfig {
     
     public static String NEGOTIATION_POLLINTERVAL_PROPERTY = "cx.agent.negotiation.poll";
     public static long DEFAULT_NEGOTIATION_POLLINTERVAL = 1000;
+
+    public static String NEGOTIATION_POLLINITIAL_PROPERTY = "cx.agent.negotiation.poll.initial";
+    public static long DEFAULT_NEGOTIATION_POLLINITIAL = 100;
+
+    public static String NEGOTIATION_CATALOG_TTL_PROPERTY = "cx.agent.negotiation.catalog.ttl";
+    public static long DEFAULT_NEGOTIATION_CATALOG_TTL = 0;
+
+    public static String NEGOTIATION_CATALOG_CACHE_PROPERTY = "cx.agent.negotiation.catalog.cache";
+    public static int DEFAULT_NEGOTIATION_CATALOG_CACHE = 256;
+
+    public static String AGREEMENT_STORE_PROPERTY = "cx.agent.agreement.store";
+
+    public static String AGREEMENT_STORE_KEY_PROPERTY = "cx.agent.agreement.store.key";
+
+    public static String AGREEMENT_SHARED_PROPERTY = "cx.agent.agreement.shared";
+    public static boolean DEFAULT_AGREEMENT_SHARED = false;
+
+    public static String NEGOTIATION_CALLBACKS_PROPERTY = "cx.agent.negotiation.callbacks";
+    public static boolean DEFAULT_NEGOTIATION_CALLBACKS = false;
+
+    public static String NEGOTIATION_REFRESH_PROPERTY = "cx.agent.negotiation.refresh";
+    public static long DEFAULT_NEGOTIATION_REFRESH = 0;
+
+    public static String NEGOTIATION_REFRESH_INTERVAL_PROPERTY = "cx.agent.negotiation.refresh.interval";
+    public static long DEFAULT_NEGOTIATION_REFRESH_INTERVAL = 10000;
     
     public static String DATASPACE_SYNCINTERVAL_PROPERTY = "cx.agent.dataspace.synchronization";
     public static long DEFAULT_DATASPACE_SYNCINTERVAL = -1;
     
     public static String DATASPACE_SYNCCONNECTORS_PROPERTY = "cx.agent.dataspace.remotes";
+
+    public static String DATASPACE_SYNCPARALLEL_PROPERTY = "cx.agent.dataspace.synchronization.parallel";
+    public static int DEFAULT_DATASPACE_SYNCPARALLEL = 8;
+
+    public static String DATASPACE_SYNCTIMEOUT_PROPERTY = "cx.agent.dataspace.synchronization.timeout";
+    public static long DEFAULT_DATASPACE_SYNCTIMEOUT = 30000;
+
+    public static String DATASPACE_SHAPES_CACHE_PROPERTY = "cx.agent.dataspace.shapes.cache";
+    public static int DEFAULT_DATASPACE_SHAPES_CACHE = 256;
     
     public static String VALIDATION_ENDPOINTS = "edc.dataplane.token.validation.endpoints";
     
     public static String FEDERATION_SERVICE_BATCH_SIZE = "cx.agent.federation.batch.max";
     public static long DEFAULT_FEDERATION_SERVICE_BATCH_SIZE = Long.MAX_VALUE;
+
+    public static String FEDERATION_SERVICE_BATCH_SERVICES = "cx.agent.federation.batch.service";
+
+    public static String FEDERATION_SERVICE_BATCH_ADAPTIVE = "cx.agent.federation.batch.adaptive";
+    public static boolean DEFAULT_FEDERATION_SERVICE_BATCH_ADAPTIVE = false;
+
+    public static String FEDERATION_SERVICE_BATCH_MIN = "cx.agent.federation.batch.min";
+    public static long DEFAULT_FEDERATION_SERVICE_BATCH_MIN = 1;
+
+    public static String FEDERATION_SERVICE_BATCH_INITIAL = "cx.agent.federation.batch.initial";
+    public static long DEFAULT_FEDERATION_SERVICE_BATCH_INITIAL = 64;
+
+    public static String FEDERATION_SERVICE_BATCH_LATENCY = "cx.agent.federation.batch.latency";
+    public static long DEFAULT_FEDERATION_SERVICE_BATCH_LATENCY = 5000;
+
+    public static String FEDERATION_SERVICE_BATCH_RESULTS = "cx.agent.federation.batch.results";
+    public static long DEFAULT_FEDERATION_SERVICE_BATCH_RESULTS = Long.MAX_VALUE;
     
+    public static String FEDERATION_SERVICE_PREFETCH = "cx.agent.federation.prefetch";
+    public static int DEFAULT_FEDERATION_SERVICE_PREFETCH = 0;
+
+    public static String FEDERATION_SERVICE_STREAMING = "cx.agent.federation.streaming";
+    public static boolean DEFAULT_FEDERATION_SERVICE_STREAMING = false;
+
+    public static String FEDERATION_SERVICE_QUERY_CACHE = "cx.agent.federation.query.cache";
+    public static int DEFAULT_FEDERATION_SERVICE_QUERY_CACHE = 256;
+
     public static String THREAD_POOL_SIZE = "cx.agent.threadpool.size";
     public static int DEFAULT_THREAD_POOL_SIZE = 4;
 
+    public static String FEDERATION_EXECUTOR_MODE = "cx.agent.federation.executor";
+    public static String DEFAULT_FEDERATION_EXECUTOR_MODE = "shared";
+
+    public static String FEDERATION_EXECUTOR_THREADS = "cx.agent.federation.executor.threads";
+    public static int DEFAULT_FEDERATION_EXECUTOR_THREADS = 64;
+
     public static String CONNECT_TIMEOUT_PROPERTY = "cx.agent.connect.timeout";
     public static String WRITE_TIMEOUT_PROPERTY = "cx.agent.write.timeout";
     public static String CALL_TIMEOUT_PROPERTY = "cx.agent.call.timeout";
@@ -95,6 +170,7 @@ public class AgentConfig {
     protected final Pattern serviceDenyPattern;
     protected final Pattern serviceAssetAllowPattern;
     protected final Pattern serviceAssetDenyPattern;
+    protected final List<Map.Entry<Pattern,Long>> serviceBatchSizes;
     
     /**
      * references to EDC services
@@ -114,6 +190,13 @@ public class AgentConfig {
         serviceDenyPattern=Pattern.compile(config.getString(SERVICE_DENY_PROPERTY,DEFAULT_SERVICE_DENY_PATTERN));
         serviceAssetAllowPattern=Pattern.compile(config.getString(SERVICE_ALLOW_ASSET_PROPERTY,DEFAULT_SERVICE_ALLOW_ASSET_PATTERN));
         serviceAssetDenyPattern=Pattern.compile(config.getString(SERVICE_DENY_ASSET_PROPERTY,DEFAULT_SERVICE_DENY_ASSET_PATTERN));
+        // if several patterns match, the service whose name sorts first wins
+        serviceBatchSizes=config.getConfig(FEDERATION_SERVICE_BATCH_SERVICES).partition()
+                .filter(serviceConfig -> serviceConfig.getString("pattern",null)!=null)
+                .sorted(Comparator.comparing(Config::currentNode))
+                .<Map.Entry<Pattern,Long>>map(serviceConfig -> new AbstractMap.SimpleImmutableEntry<>(Pattern.compile(serviceConfig.getString("pattern")),
+                        serviceConfig.getLong("max",DEFAULT_FEDERATION_SERVICE_BATCH_SIZE)))
+                .collect(Collectors.toList());
     }
 
     /**
@@ -145,6 +228,20 @@ public class AgentConfig {
         return files;
     }
 
+    /**
+     * @return directory of a persistent (TDB2) rdf store, null if the rdf store is kept in memory only
+     */
+    public String getRdfStoreDirectory() {
+        return config.getString(RDF_STORE_PROPERTY,null);
+    }
+
+    /**
+     * @return whether the asset files are reloaded into the persistent rdf store even if they did not change
+     */
+    public boolean isRdfStoreReload() {
+        return config.getBoolean(RDF_STORE_RELOAD_PROPERTY,DEFAULT_RDF_STORE_RELOAD);
+    }
+
     /**
      * @return name of the sparql access point
      */
@@ -200,12 +297,89 @@ public class AgentConfig {
     }
 
     /**
-     * @return the default overall timeout when waiting for a negotation result
+     * @return how federated calls and negotiations are executed (shared pool, elastic or virtual threads)
+     */
+    public String getFederationExecutorMode() {
+        return config.getString(FEDERATION_EXECUTOR_MODE,DEFAULT_FEDERATION_EXECUTOR_MODE);
+    }
+
+    /**
+     * @return maximal number of threads for federated calls in elastic mode
+     */
+    public int getFederationExecutorThreads() {
+        return config.getInteger(FEDERATION_EXECUTOR_THREADS,DEFAULT_FEDERATION_EXECUTOR_THREADS);
+    }
+
+    /**
+     * @return the maximal interval between status checks of a negotiation
      */
     public long getNegotiationPollInterval() {
         return config.getLong(NEGOTIATION_POLLINTERVAL_PROPERTY,DEFAULT_NEGOTIATION_POLLINTERVAL);
     }
 
+    /**
+     * @return the first interval between status checks of a negotiation, doubled up to the poll interval
+     */
+    public long getNegotiationPollInitialInterval() {
+        return config.getLong(NEGOTIATION_POLLINITIAL_PROPERTY,DEFAULT_NEGOTIATION_POLLINITIAL);
+    }
+
+    /**
+     * @return how long the contract offers of a remote asset are reused for negotiations, 0 if not cached
+     */
+    public long getNegotiationCatalogTtl() {
+        return config.getLong(NEGOTIATION_CATALOG_TTL_PROPERTY,DEFAULT_NEGOTIATION_CATALOG_TTL);
+    }
+
+    /**
+     * @return maximal number of assets whose contract offers are cached
+     */
+    public int getNegotiationCatalogCacheSize() {
+        return config.getInteger(NEGOTIATION_CATALOG_CACHE_PROPERTY,DEFAULT_NEGOTIATION_CATALOG_CACHE);
+    }
+
+    /**
+     * @return directory in which agreements and endpoints are kept across restarts, null if kept in memory only
+     */
+    public String getAgreementStoreDirectory() {
+        return config.getString(AGREEMENT_STORE_PROPERTY,null);
+    }
+
+    /**
+     * @return base64 encoded AES key to encrypt the endpoints in the agreement store directory, null if endpoints are not kept there
+     */
+    public String getAgreementStoreKey() {
+        return config.getString(AGREEMENT_STORE_KEY_PROPERTY,null);
+    }
+
+    /**
+     * @return whether the agreement store directory is shared by several replicas of the agent
+     */
+    public boolean isAgreementStoreShared() {
+        return config.getBoolean(AGREEMENT_SHARED_PROPERTY,DEFAULT_AGREEMENT_SHARED);
+    }
+
+    /**
+     * @return whether negotiations and transfers register callbacks for their state changes
+     */
+    public boolean isNegotiationCallbacks() {
+        return config.getBoolean(NEGOTIATION_CALLBACKS_PROPERTY,DEFAULT_NEGOTIATION_CALLBACKS);
+    }
+
+    /**
+     * @return how many milliseconds before the token expiry the endpoint of an asset in use is refreshed, 0 if no refresh
+     */
+    public long getNegotiationRefreshWindow() {
+        return config.getLong(NEGOTIATION_REFRESH_PROPERTY,DEFAULT_NEGOTIATION_REFRESH);
+    }
+
+    /**
+     * @return the interval between checks for endpoints to refresh
+     */
+    public long getNegotiationRefreshInterval() {
+        return config.getLong(NEGOTIATION_REFRESH_INTERVAL_PROPERTY,DEFAULT_NEGOTIATION_REFRESH_INTERVAL);
+    }
+
     /**
      * @return the synchronization interval between individual sync calls, -1 if no sync
      */
@@ -224,6 +398,27 @@ public class AgentConfig {
         return connectors;
     }
 
+    /**
+     * @return maximal number of connectors whose catalogues are fetched at the same time
+     */
+    public int getDataspaceSynchronizationParallelism() {
+        return config.getInteger(DATASPACE_SYNCPARALLEL_PROPERTY,DEFAULT_DATASPACE_SYNCPARALLEL);
+    }
+
+    /**
+     * @return maximal number of milliseconds to fetch the catalogue of a single connector, 0 if not limited
+     */
+    public long getDataspaceSynchronizationTimeout() {
+        return config.getLong(DATASPACE_SYNCTIMEOUT_PROPERTY,DEFAULT_DATASPACE_SYNCTIMEOUT);
+    }
+
+    /**
+     * @return number of parsed shapes graphs (per content) to keep, 0 parses each shapes graph anew
+     */
+    public int getDataspaceShapesCacheSize() {
+        return config.getInteger(DATASPACE_SHAPES_CACHE_PROPERTY,DEFAULT_DATASPACE_SHAPES_CACHE);
+    }
+
     /**
      * @return array of validation endpoints
      */
@@ -245,6 +440,75 @@ public class AgentConfig {
         return config.getLong(FEDERATION_SERVICE_BATCH_SIZE,DEFAULT_FEDERATION_SERVICE_BATCH_SIZE);
     }
 
+    /**
+     * @param service target service url (connector and asset)
+     * @return maximal batch size for remote service calls to the given target
+     */
+    public long getFederationServiceBatchSize(String service) {
+        for(Map.Entry<Pattern,Long> serviceBatchSize : serviceBatchSizes) {
+            if(serviceBatchSize.getKey().matcher(service).matches()) {
+                return serviceBatchSize.getValue();
+            }
+        }
+        return getFederationServiceBatchSize();
+    }
+
+    /**
+     * @return whether batch sizes of remote service calls adapt to the observed target behaviour
+     */
+    public boolean isFederationServiceBatchAdaptive() {
+        return config.getBoolean(FEDERATION_SERVICE_BATCH_ADAPTIVE,DEFAULT_FEDERATION_SERVICE_BATCH_ADAPTIVE);
+    }
+
+    /**
+     * @return minimal batch size for adaptive remote service calls
+     */
+    public long getFederationServiceBatchMin() {
+        return config.getLong(FEDERATION_SERVICE_BATCH_MIN,DEFAULT_FEDERATION_SERVICE_BATCH_MIN);
+    }
+
+    /**
+     * @return initial batch size for adaptive remote service calls
+     */
+    public long getFederationServiceBatchInitial() {
+        return config.getLong(FEDERATION_SERVICE_BATCH_INITIAL,DEFAULT_FEDERATION_SERVICE_BATCH_INITIAL);
+    }
+
+    /**
+     * @return targeted latency (in milliseconds) of a single adaptive remote service call
+     */
+    public long getFederationServiceBatchLatency() {
+        return config.getLong(FEDERATION_SERVICE_BATCH_LATENCY,DEFAULT_FEDERATION_SERVICE_BATCH_LATENCY);
+    }
+
+    /**
+     * @return targeted maximal number of results of a single adaptive remote service call
+     */
+    public long getFederationServiceBatchResults() {
+        return config.getLong(FEDERATION_SERVICE_BATCH_RESULTS,DEFAULT_FEDERATION_SERVICE_BATCH_RESULTS);
+    }
+
+    /**
+     * @return number of batches that are submitted ahead of the currently consumed batch
+     */
+    public int getFederationServicePrefetch() {
+        return config.getInteger(FEDERATION_SERVICE_PREFETCH,DEFAULT_FEDERATION_SERVICE_PREFETCH);
+    }
+
+    /**
+     * @return whether remote select results are joined while streaming instead of being materialized first
+     */
+    public boolean isFederationServiceStreaming() {
+        return config.getBoolean(FEDERATION_SERVICE_STREAMING,DEFAULT_FEDERATION_SERVICE_STREAMING);
+    }
+
+    /**
+     * @return number of prepared remote service queries to keep, 0 switches the cache off
+     */
+    public int getFederationServiceQueryCacheSize() {
+        return config.getInteger(FEDERATION_SERVICE_QUERY_CACHE,DEFAULT_FEDERATION_SERVICE_QUERY_CACHE);
+    }
+
     /**
      * @return outgoing socket connect timeout
      */
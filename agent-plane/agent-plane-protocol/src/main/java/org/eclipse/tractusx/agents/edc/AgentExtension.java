@@ -26,6 +26,9 @@ import org.eclipse.tractusx.agents.edc.http.transfer.AgentSourceRequestParamsSup
 import org.eclipse.tractusx.agents.edc.rdf.RDFStore;
 import org.eclipse.tractusx.agents.edc.service.DataspaceSynchronizer;
 import org.eclipse.tractusx.agents.edc.service.EdcSkillStore;
+import org.eclipse.tractusx.agents.edc.service.FileAgreementCluster;
+import org.eclipse.tractusx.agents.edc.service.FileAgreementStore;
+import org.eclipse.tractusx.agents.edc.service.InMemoryAgreementStore;
 import org.eclipse.tractusx.agents.edc.sparql.DataspaceServiceExecutor;
 import org.eclipse.tractusx.agents.edc.sparql.SparqlQueryProcessor;
 import org.eclipse.tractusx.agents.edc.sparql.SparqlQuerySerializerFactory;
@@ -47,7 +50,9 @@ import org.eclipse.tractusx.agents.edc.service.DataManagement;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.PipelineService;
 import org.eclipse.edc.spi.types.TypeManager;
 
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.regex.Pattern;
@@ -95,11 +100,26 @@ public class AgentExtension implements ServiceExtension {
      */
     protected ScheduledExecutorService executorService;
 
+    /**
+     * runs federated calls and negotiations, may be the scheduler
+     */
+    protected ExecutorService federationService;
+
     /**
      * data synchronization service
      */
     protected DataspaceSynchronizer synchronizer;
 
+    /**
+     * local (memory or persistent) rdf store
+     */
+    protected RDFStore rdfStore;
+
+    /**
+     * negotiation and endpoint refresh service
+     */
+    protected AgreementController agreementController;
+
     /**
      * @return name of the extension
      */
@@ -125,11 +145,28 @@ public class AgentExtension implements ServiceExtension {
 
         DataManagement catalogService=new DataManagement(monitor,typeManager,httpClient,config);
 
-        AgreementController agreementController=new AgreementController(monitor,config,catalogService);
+        if(config.getAgreementStoreDirectory()!=null) {
+            Path agreementDirectory=Path.of(config.getAgreementStoreDirectory());
+            IAgreementStore agreementStore=new FileAgreementStore(agreementDirectory,typeManager,monitor,config.getAgreementStoreKey());
+            if(config.isAgreementStoreShared()) {
+                if(config.getAgreementStoreKey()==null) {
+                    monitor.warning(String.format("Sharing endpoints requires the %s property. Replicas will transfer their own endpoints.",AgentConfig.AGREEMENT_STORE_KEY_PROPERTY));
+                }
+                IAgreementCluster agreementCluster=new FileAgreementCluster(agreementDirectory.resolve("cluster"),typeManager,monitor);
+                agreementController=new DistributedAgreementController(monitor,config,catalogService,agreementStore,agreementCluster);
+            } else {
+                agreementController=new AgreementController(monitor,config,catalogService,agreementStore);
+            }
+        } else {
+            if(config.isAgreementStoreShared()) {
+                monitor.warning(String.format("Sharing agreements requires the %s property. Keeping agreements local.",AgentConfig.AGREEMENT_STORE_PROPERTY));
+            }
+            agreementController=new AgreementController(monitor,config,catalogService,new InMemoryAgreementStore());
+        }
         monitor.debug(String.format("Registering agreement controller %s",agreementController));
         webService.registerResource(CALLBACK_CONTEXT_ALIAS, agreementController);
 
-        RDFStore rdfStore=new RDFStore(config,monitor);
+        rdfStore=new RDFStore(config,monitor);
 
         executorService= Executors.newScheduledThreadPool(config.getThreadPoolSize());
         synchronizer=new DataspaceSynchronizer(executorService,config,catalogService,rdfStore,monitor);
@@ -142,7 +179,8 @@ public class AgentExtension implements ServiceExtension {
 
         // EDC Remoting Support
         ServiceExecutorRegistry reg = new ServiceExecutorRegistry();
-        reg.addBulkLink(new DataspaceServiceExecutor(monitor,agreementController,config,httpClient,executorService,typeManager));
+        federationService=ExecutorServiceFactory.createFederationExecutor(config,monitor,executorService);
+        reg.addBulkLink(new DataspaceServiceExecutor(monitor,agreementController,config,httpClient,federationService,typeManager));
         //reg.add(new DataspaceServiceExecutor(monitor,agreementController,config,httpClient));
 
         // Ontop and other deep nesting-afraid providers/optimizers
@@ -175,6 +213,7 @@ public class AgentExtension implements ServiceExtension {
     @Override
     public void start() {
         synchronizer.start();
+        agreementController.start(executorService,federationService);
     }
 
     /**
@@ -183,6 +222,11 @@ public class AgentExtension implements ServiceExtension {
      */
     @Override
     public void shutdown() {
+        agreementController.shutdown();
         synchronizer.shutdown();
+        if(federationService!=executorService) {
+            federationService.shutdownNow();
+        }
+        rdfStore.close();
     }
 }
\ No newline at end of file
@@ -16,11 +16,9 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.eclipse.tractusx.agents.edc;
 
-import com.nimbusds.jose.JWSObject;
 import jakarta.json.JsonValue;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
-import jakarta.ws.rs.core.Response;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.types.domain.DataAddress;
 import org.eclipse.edc.spi.types.domain.callback.CallbackAddress;
@@ -30,8 +28,18 @@ import org.eclipse.tractusx.agents.edc.model.*;
 import org.eclipse.tractusx.agents.edc.service.*;
 
 import java.io.IOException;
-import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 
 /**
@@ -46,6 +54,11 @@ public class AgreementController implements IAgreementController {
      */
     public static String TRANSFER_TYPE="HttpProxy";
 
+    /**
+     * sub path of the callback endpoint which receives state change events
+     */
+    public static final String EVENT_PATH="/event";
+
     /**
      * EDC service references
      */
@@ -54,20 +67,103 @@ public class AgreementController implements IAgreementController {
     protected final AgentConfig config;
 
     /**
-     * memory store for links from assets to the actual transfer addresses
+     * an endpoint reference together with the expiry of its token,
+     * decoded once such that lookups only compare the expiry
+     */
+    protected static class ActiveEndpoint {
+        protected final EndpointDataReference reference;
+        // expiry of the token in milliseconds since the epoch, -1 if the token is missing or invalid
+        protected final long expiry;
+
+        protected ActiveEndpoint(EndpointDataReference reference, long expiry) {
+            this.reference = reference;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * state of a single asset: the agreement, the current transfer process
+     * (which should always adhere to the agreement) and, at the end of provisioning,
+     * the endpoint reference that fits to the current transfer process
+     */
+    protected static class AssetState {
+        protected final String asset;
+        // whether a negotiation/transfer for the asset is still running
+        protected volatile boolean provisioning = true;
+        protected volatile ContractAgreement agreement;
+        protected volatile String transferId;
+        protected volatile TransferProcess process;
+        protected volatile ActiveEndpoint endpoint;
+        // where and what has been negotiated, needed to refresh the endpoint
+        protected volatile String remoteUrl;
+        protected volatile Map<String, JsonValue> assetProperties;
+        // whether the current endpoint has been handed out, only those assets are refreshed
+        protected volatile boolean used;
+        // guards against overlapping refreshes
+        protected final AtomicBoolean refreshing = new AtomicBoolean();
+        // completes when the provisioning has ended, shared by all concurrent requests
+        protected final CompletableFuture<EndpointDataReference> provisioned = new CompletableFuture<>();
+
+        protected AssetState(String asset) {
+            this.asset = asset;
+        }
+
+        /**
+         * @return the current endpoint reference, null if none
+         */
+        protected EndpointDataReference getEndpoint() {
+            ActiveEndpoint active = endpoint;
+            return active == null ? null : active.reference;
+        }
+    }
+
+    /**
+     * memory store for links from active assets to their state
+     * lookups are lock-free and different assets never contend
      * TODO make this a distributed cache
-     * TODO let this cache evict invalidate references automatically
      */
-    // hosts all pending processes
-    protected final Set<String> activeAssets = new HashSet<>();
-    // any contract agreements indexed by asset
-    protected final Map<String, ContractAgreement> agreementStore = new HashMap<>();
-    // any transfer processes indexed by asset, the current process should
-    // always adhere to the above agreement
-    protected final Map<String, TransferProcess> processStore = new HashMap<>();
-    // at the end of provisioning and endpoint reference will be set
-    // that fits to the current transfer process
-    protected final Map<String, EndpointDataReference> endpointStore = new HashMap<>();
+    protected final ConcurrentMap<String, AssetState> assetStore = new ConcurrentHashMap<>();
+
+    /**
+     * store for links from assets to their last agreement (and endpoint), used to
+     * provision new transfers without catalog lookup and negotiation
+     */
+    protected final IAgreementStore agreementStore;
+
+    /**
+     * contract offers per remote connector and asset, together with their expiry
+     * (least recently used and expired entries are evicted)
+     */
+    protected final Map<String, Map.Entry<Long, DcatCatalog>> catalogCache;
+
+    /**
+     * orders the contract offers of an asset
+     */
+    protected final IOfferRanking offerRanking;
+
+    /**
+     * index from transfer process ids to assets, used to resolve callbacks
+     */
+    protected final ConcurrentMap<String, String> processIndex = new ConcurrentHashMap<>();
+
+    /**
+     * signals to wake up the threads tracking a negotiation or transfer, by process id
+     */
+    protected final ConcurrentMap<String, CompletableFuture<Void>> wakeUps = new ConcurrentHashMap<>();
+
+    /**
+     * a status check of a negotiation or transfer
+     * @param <T> type of status
+     */
+    @FunctionalInterface
+    protected interface StatusCheck<T> {
+        T check() throws IOException;
+    }
+
+    /**
+     * the scheduled refresh of endpoints, null if not started
+     */
+    protected ScheduledFuture<?> refresher;
 
     /**
      * creates an agreement controller
@@ -77,9 +173,105 @@ public class AgreementController implements IAgreementController {
      * @param dataManagement data management service wrapper
      */
     public AgreementController(Monitor monitor, AgentConfig config, DataManagement dataManagement) {
+        this(monitor, config, dataManagement, new InMemoryAgreementStore());
+    }
+
+    /**
+     * creates an agreement controller and restores the still valid endpoints of the store
+     *
+     * @param monitor        logger
+     * @param config         typed config
+     * @param dataManagement data management service wrapper
+     * @param agreementStore store for agreements
+     */
+    public AgreementController(Monitor monitor, AgentConfig config, DataManagement dataManagement, IAgreementStore agreementStore) {
+        this(monitor, config, dataManagement, agreementStore, new CostBasedOfferRanking(config));
+    }
+
+    /**
+     * creates an agreement controller and restores the still valid endpoints of the store
+     *
+     * @param monitor        logger
+     * @param config         typed config
+     * @param dataManagement data management service wrapper
+     * @param agreementStore store for agreements
+     * @param offerRanking   strategy to choose among several contract offers
+     */
+    public AgreementController(Monitor monitor, AgentConfig config, DataManagement dataManagement, IAgreementStore agreementStore, IOfferRanking offerRanking) {
         this.monitor = monitor;
         this.dataManagement = dataManagement;
         this.config = config;
+        this.agreementStore = agreementStore;
+        this.offerRanking = offerRanking;
+        int cacheSize = config.getNegotiationCatalogCacheSize();
+        this.catalogCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map.Entry<Long, DcatCatalog>> eldest) {
+                return size() > cacheSize || eldest.getValue().getKey() <= System.currentTimeMillis();
+            }
+        });
+        restore();
+    }
+
+    /**
+     * activates all assets whose stored endpoint is still valid
+     */
+    protected void restore() {
+        int restored = 0;
+        for (AgreementRecord record : agreementStore.getAll()) {
+            EndpointDataReference endpoint = record.getEndpoint();
+            if (endpoint != null && isValid(record.getAsset(), endpoint)) {
+                AssetState state = activate(record.getAsset());
+                if (state != null) {
+                    adopt(state, record);
+                    state.provisioning = false;
+                    state.provisioned.complete(endpoint);
+                    restored++;
+                }
+            }
+        }
+        if (restored > 0) {
+            monitor.info(String.format("Restored %d endpoints from the agreement store.", restored));
+        }
+    }
+
+    /**
+     * takes over the agreement and the endpoint of a stored record
+     * @param state the state of the asset
+     * @param record a record with a valid endpoint
+     */
+    protected void adopt(AssetState state, AgreementRecord record) {
+        EndpointDataReference endpoint = record.getEndpoint();
+        state.remoteUrl = record.getRemoteUrl();
+        state.assetProperties = record.getAssetProperties();
+        state.agreement = record.getAgreement();
+        registerTransfer(state, endpoint.getId());
+        setEndpoint(state, endpoint);
+    }
+
+    /**
+     * starts refreshing the endpoints of assets in use before their tokens expire
+     * @param scheduler service to schedule the checks
+     * @param worker executor to run the (blocking) refreshes
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, Executor worker) {
+        long window = config.getNegotiationRefreshWindow();
+        long interval = config.getNegotiationRefreshInterval();
+        if (refresher == null && window > 0 && interval > 0) {
+            monitor.info(String.format("Starting endpoint refresh %d milliseconds before expiry with interval %d milliseconds", window, interval));
+            refresher = scheduler.scheduleWithFixedDelay(() -> refreshEndpoints(worker), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * stops refreshing endpoints
+     */
+    public synchronized void shutdown() {
+        if (refresher != null) {
+            monitor.info("Shutting down endpoint refresh");
+            refresher.cancel(false);
+            refresher = null;
+        }
     }
 
     /**
@@ -99,18 +291,135 @@ public class AgreementController implements IAgreementController {
     public void receiveEdcCallback(EndpointDataReference dataReference) {
         var agreementId = dataReference.getId();
         monitor.debug(String.format("An endpoint data reference for agreement %s has been posted.", agreementId));
-        synchronized (agreementStore) {
-            for (Map.Entry<String, TransferProcess> process : processStore.entrySet()) {
-                if (process.getValue().getId().equals(agreementId)) {
-                    synchronized (endpointStore) {
-                        monitor.debug(String.format("Agreement %s belongs to asset %s.", agreementId, process.getKey()));
-                        endpointStore.put(process.getKey(), dataReference);
-                        return;
-                    }
+        String asset = processIndex.get(agreementId);
+        if (asset != null) {
+            AssetState state = assetStore.get(asset);
+            if (state != null && agreementId.equals(state.transferId)) {
+                monitor.debug(String.format("Agreement %s belongs to asset %s.", agreementId, asset));
+                install(state, dataReference);
+                return;
+            }
+        }
+        receiveForeignCallback(dataReference);
+    }
+
+    /**
+     * handles an endpoint data reference which does not belong to any active asset
+     *
+     * @param dataReference contains the actual call token
+     */
+    protected void receiveForeignCallback(EndpointDataReference dataReference) {
+        monitor.debug(String.format("Agreement %s has no active asset. Guess that came for another plane. Ignoring.", dataReference.getId()));
+    }
+
+    /**
+     * installs the endpoint data reference of the current transfer of an asset
+     *
+     * @param state the state of the asset
+     * @param dataReference contains the actual call token
+     */
+    protected void install(AssetState state, EndpointDataReference dataReference) {
+        // mark the type in the endpoint
+        Map<String, JsonValue> assetProperties = state.assetProperties;
+        if (assetProperties != null) {
+            for (Map.Entry<String, JsonValue> prop : assetProperties.entrySet()) {
+                dataReference.getProperties().put(prop.getKey(), JsonLd.asString(prop.getValue()));
+            }
+        }
+        state.used = false;
+        setEndpoint(state, dataReference);
+        ContractAgreement agreement = state.agreement;
+        if (agreement != null && state.remoteUrl != null) {
+            agreementStore.put(new AgreementRecord(state.asset, state.remoteUrl, agreement, assetProperties, dataReference));
+        }
+        wakeUp(dataReference.getId());
+    }
+
+    /**
+     * this is called by the control plane when a negotiation or transfer has changed its state
+     *
+     * @param event envelope of the event
+     */
+    @POST
+    @Path(EVENT_PATH)
+    public void receiveEdcEvent(Map<String, Object> event) {
+        Object payload = event.get("payload");
+        if (payload instanceof Map) {
+            Object processId = ((Map<?, ?>) payload).get("contractNegotiationId");
+            if (processId == null) {
+                processId = ((Map<?, ?>) payload).get("transferProcessId");
+            }
+            if (processId != null) {
+                monitor.debug(String.format("Event %s for process %s has been posted.", event.get("type"), processId));
+                wakeUp(processId.toString());
+                return;
+            }
+        }
+        monitor.debug(String.format("Event %s does not refer to a process. Ignoring.", event.get("type")));
+    }
+
+    /**
+     * wakes up the thread tracking a process, if any
+     * @param processId id of the negotiation or transfer
+     */
+    protected void wakeUp(String processId) {
+        CompletableFuture<Void> signal = wakeUps.get(processId);
+        if (signal != null) {
+            signal.complete(null);
+        }
+    }
+
+    /**
+     * tracks a process until it is done or the negotiation timeout has passed.
+     * Status checks are made whenever an event or callback for the process arrives
+     * and, as a fallback, with exponentially growing intervals.
+     *
+     * @param processId id of the negotiation or transfer
+     * @param check     status check
+     * @param done      whether a status is final
+     * @param <T>       type of status
+     * @return the last status, may be null or not done if the timeout has passed
+     */
+    protected <T> T track(String processId, StatusCheck<T> check, Predicate<T> done) throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        long maxInterval = config.getNegotiationPollInterval();
+        long interval = Math.min(config.getNegotiationPollInitialInterval(), maxInterval);
+        try {
+            while (true) {
+                // arm the signal before checking, so no state change in between gets lost
+                CompletableFuture<Void> signal = new CompletableFuture<>();
+                wakeUps.put(processId, signal);
+                T status = check.check();
+                long remaining = startTime + config.getNegotiationTimeout() - System.currentTimeMillis();
+                if ((status != null && done.test(status)) || remaining <= 0) {
+                    return status;
+                }
+                try {
+                    signal.get(Math.min(interval, remaining), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    interval = Math.min(interval * 2, maxInterval);
+                } catch (ExecutionException e) {
+                    // signals are never completed exceptionally
                 }
             }
+        } finally {
+            wakeUps.remove(processId);
+        }
+    }
+
+    /**
+     * @param event the type of events to subscribe
+     * @return the callback addresses to receive state change events, if enabled
+     */
+    protected List<CallbackAddress> getEventCallbacks(String event) {
+        if (!config.isNegotiationCallbacks()) {
+            return List.of();
         }
-        monitor.debug(String.format("Agreement %s has no active asset. Guess that came for another plane. Ignoring.", agreementId));
+        return List.of(CallbackAddress.Builder.newInstance()
+                .uri(config.getCallbackEndpoint() + EVENT_PATH)
+                .events(Set.of(event))
+                .transactional(false)
+                .build());
     }
 
     /**
@@ -121,73 +430,114 @@ public class AgreementController implements IAgreementController {
      */
     @Override
     public EndpointDataReference get(String assetId) {
-        synchronized (activeAssets) {
-            if (!activeAssets.contains(assetId)) {
-                monitor.debug(String.format("Asset %s is not active", assetId));
-                return null;
-            }
-            synchronized (endpointStore) {
-                EndpointDataReference result = endpointStore.get(assetId);
-                if (result != null) {
-                    String token = result.getAuthCode();
-                    if (token != null) {
-                        try {
-                            JWSObject jwt = JWSObject.parse(token);
-                            Object expiryObject=jwt.getPayload().toJSONObject().get("exp");
-                            if(expiryObject instanceof Long) {
-                                // token times are in seconds
-                                if(!new Date((Long) expiryObject*1000).before(new Date(System.currentTimeMillis() + 30 * 1000))) {
-                                    return result;
-                                }
-                            }
-                        } catch(ParseException | NumberFormatException e) {
-                            monitor.debug(String.format("Active asset %s has invalid agreement token.", assetId));
-                        }
-                    }
-                    endpointStore.remove(assetId);
-                }
-                monitor.debug(String.format("Active asset %s has timed out or was not installed.", assetId));
-                synchronized (processStore) {
-                    processStore.remove(assetId);
-                    synchronized (agreementStore) {
-                        ContractAgreement agreement = agreementStore.get(assetId);
-                        if (agreement != null && agreement.getContractSigningDate()+600000L <= System.currentTimeMillis()) {
-                            agreementStore.remove(assetId);
-                        }
-                        activeAssets.remove(assetId);
-                    }
-                }
+        AssetState state = assetStore.get(assetId);
+        if (state == null) {
+            monitor.debug(String.format("Asset %s is not active", assetId));
+            return null;
+        }
+        ActiveEndpoint active = state.endpoint;
+        if (active != null && isValid(active.expiry)) {
+            // avoid writing the shared flag on every lookup
+            if (!state.used) {
+                state.used = true;
             }
+            return active.reference;
+        }
+        if (state.provisioning) {
+            monitor.debug(String.format("Active asset %s is still being provisioned.", assetId));
+            return null;
         }
+        monitor.debug(String.format("Active asset %s has timed out or was not installed.", assetId));
+        retire(assetId, state);
         return null;
     }
 
+    /**
+     * checks the token of an endpoint reference
+     * @param assetId id of the agreed asset
+     * @param reference endpoint reference
+     * @return whether the token will be valid for at least 30 more seconds
+     */
+    protected boolean isValid(String assetId, EndpointDataReference reference) {
+        return isValid(getExpiry(assetId, reference));
+    }
+
+    /**
+     * checks a decoded token expiry
+     * @param expiry of the token in milliseconds since the epoch
+     * @return whether the token will be valid for at least 30 more seconds
+     */
+    protected boolean isValid(long expiry) {
+        return expiry >= System.currentTimeMillis() + 30 * 1000;
+    }
+
+    /**
+     * installs an endpoint reference and decodes the expiry of its token
+     * @param state the state of the asset
+     * @param reference the new endpoint reference
+     */
+    protected void setEndpoint(AssetState state, EndpointDataReference reference) {
+        state.endpoint = new ActiveEndpoint(reference, getExpiry(state.asset, reference));
+    }
+
+    /**
+     * decodes the token of an endpoint reference
+     * @param assetId id of the agreed asset
+     * @param reference endpoint reference
+     * @return expiry of the token in milliseconds since the epoch, -1 if the token is missing or invalid
+     */
+    protected long getExpiry(String assetId, EndpointDataReference reference) {
+        long expiry = AgreementRecord.getExpiry(reference);
+        if (expiry < 0) {
+            monitor.debug(String.format("Active asset %s has missing or invalid agreement token.", assetId));
+        }
+        return expiry;
+    }
+
     /**
      * sets active
      * @param asset name
+     * @return the fresh state of the asset, null if the asset is already active
      */
-    protected void activate(String asset) {
-        synchronized (activeAssets) {
-            if (activeAssets.contains(asset)) {
-                throw new ClientErrorException("Cannot agree on an already active asset.", Response.Status.CONFLICT);
-            }
-            activeAssets.add(asset);
+    protected AssetState activate(String asset) {
+        AssetState state = new AssetState(asset);
+        if (assetStore.putIfAbsent(asset, state) != null) {
+            return null;
         }
+        return state;
     }
 
     /**
-     * sets active
+     * sets inactive
      * @param asset name
      */
     protected void deactivate(String asset) {
-        synchronized (activeAssets) {
-            activeAssets.remove(asset);
+        AssetState state = assetStore.remove(asset);
+        if (state != null) {
+            unindex(state);
         }
-        synchronized (agreementStore) {
-            agreementStore.remove(asset);
+    }
+
+    /**
+     * sets inactive if the asset is still in the given state,
+     * a concurrent activation wins
+     * @param asset name
+     * @param state the state which has been seen
+     */
+    protected void retire(String asset, AssetState state) {
+        if (assetStore.remove(asset, state)) {
+            unindex(state);
         }
-        synchronized (processStore) {
-            processStore.remove(asset);
+    }
+
+    /**
+     * removes the process of a retired state from the callback index
+     * @param state retired state
+     */
+    protected void unindex(AssetState state) {
+        String transferId = state.transferId;
+        if (transferId != null) {
+            processIndex.remove(transferId, state.asset);
         }
     }
 
@@ -197,8 +547,9 @@ public class AgreementController implements IAgreementController {
      * @param agreement object
      */
     protected void registerAgreement(String asset, ContractAgreement agreement) {
-        synchronized (agreementStore) {
-            agreementStore.put(asset, agreement);
+        AssetState state = assetStore.get(asset);
+        if (state != null) {
+            state.agreement = agreement;
         }
     }
 
@@ -208,14 +559,34 @@ public class AgreementController implements IAgreementController {
      * @param process object
      */
     protected void registerProcess(String asset, TransferProcess process) {
-        synchronized (processStore) {
-            processStore.put(asset, process);
+        AssetState state = assetStore.get(asset);
+        if (state != null) {
+            registerTransfer(state, process.getId());
+            state.process = process;
+        }
+    }
+
+    /**
+     * register a transfer process id (as soon as it is known) for resolving callbacks
+     * @param state of the asset
+     * @param transferId id of the transfer process
+     */
+    protected void registerTransfer(AssetState state, String transferId) {
+        String previous = state.transferId;
+        if (!transferId.equals(previous)) {
+            processIndex.put(transferId, state.asset);
+            state.transferId = transferId;
+            if (previous != null) {
+                processIndex.remove(previous, state.asset);
+            }
         }
     }
 
     /**
      * creates a new agreement (asynchronously)
-     * and waits for the result
+     * and waits for the result. Concurrent requests for the
+     * same asset share a single negotiation. An agreement
+     * which has been made before is reused for the new transfer.
      *
      * @param remoteUrl ids endpoint url of the remote connector
      * @param asset     name of the asset to agree upon
@@ -223,26 +594,214 @@ public class AgreementController implements IAgreementController {
      */
     @Override
     public EndpointDataReference createAgreement(String remoteUrl, String asset) throws WebApplicationException {
-        monitor.debug(String.format("About to create an agreement for asset %s at connector %s",asset,remoteUrl));
+        while (true) {
+            AssetState state = activate(asset);
+            if (state != null) {
+                try {
+                    EndpointDataReference reference = provision(remoteUrl, asset, state);
+                    state.provisioned.complete(reference);
+                    return reference;
+                } catch (RuntimeException | Error e) {
+                    // whatever failed, the next request must negotiate again
+                    state.provisioning = false;
+                    retire(asset, state);
+                    state.provisioned.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            AssetState existing = assetStore.get(asset);
+            if (existing != null && existing.provisioning) {
+                monitor.debug(String.format("Joining the running negotiation for asset %s at connector %s", asset, remoteUrl));
+                return await(asset, existing);
+            }
+            EndpointDataReference reference = get(asset);
+            if (reference != null) {
+                return reference;
+            }
+            // the asset has been retired in between, so try again
+        }
+    }
+
+    /**
+     * waits for the negotiation of another request
+     * @param asset name of the asset
+     * @param state the state being provisioned
+     * @return endpoint reference of the other request
+     */
+    protected EndpointDataReference await(String asset, AssetState state) throws WebApplicationException {
+        try {
+            return state.provisioned.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WebApplicationException) {
+                throw (WebApplicationException) e.getCause();
+            }
+            throw new InternalServerErrorException(String.format("Negotiation for asset %s failed.", asset), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException(String.format("Waiting for the negotiation of asset %s has been interrupted.", asset), e);
+        }
+    }
+
+    /**
+     * negotiates and provisions an asset which has been activated by this request
+     *
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset     name of the asset to agree upon
+     * @param state     the fresh state of the asset
+     * @return endpoint reference, null if no callback arrived in time
+     */
+    protected EndpointDataReference provision(String remoteUrl, String asset, AssetState state) throws WebApplicationException {
+        agreeAndTransfer(remoteUrl, asset, state, null);
+        // now delegate to the original getter
+        state.provisioning = false;
+        return get(asset);
+    }
+
+    /**
+     * refreshes the endpoints of all assets which are in use and whose tokens expire soon
+     * @param worker executor to run the individual refreshes
+     */
+    protected void refreshEndpoints(Executor worker) {
+        long deadline = System.currentTimeMillis() + config.getNegotiationRefreshWindow();
+        for (AssetState state : assetStore.values()) {
+            ActiveEndpoint active = state.endpoint;
+            if (!state.provisioning && state.used && active != null && state.remoteUrl != null
+                    && active.expiry < deadline && state.refreshing.compareAndSet(false, true)) {
+                EndpointDataReference previous = active.reference;
+                monitor.debug(String.format("About to refresh the endpoint of asset %s", state.asset));
+                try {
+                    worker.execute(() -> refresh(state, previous));
+                } catch (RuntimeException e) {
+                    state.refreshing.set(false);
+                    monitor.warning(String.format("Could not schedule the refresh of asset %s.", state.asset), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * refreshes the endpoint of an asset in use by a new transfer under the existing agreement
+     * or, if that agreement is not accepted anymore, by a new negotiation. The previous endpoint
+     * stays in use until the callback for the new transfer arrives.
+     *
+     * @param state     the provisioned state of the asset
+     * @param previous  the endpoint which is about to expire
+     */
+    protected void refresh(AssetState state, EndpointDataReference previous) {
+        String asset = state.asset;
+        String remoteUrl = state.remoteUrl;
+        try {
+            if (assetStore.get(asset) != state) {
+                monitor.debug(String.format("Asset %s has been retired in the meantime. No refresh.", asset));
+                return;
+            }
+            EndpointDataReference reference = agreeAndTransfer(remoteUrl, asset, state, previous);
+            if (reference == null) {
+                monitor.warning(String.format("No refreshed endpoint for asset %s arrived in time.", asset));
+            } else {
+                monitor.debug(String.format("Refreshed the endpoint for asset %s.", asset));
+            }
+        } catch (WebApplicationException e) {
+            monitor.warning(String.format("Could not refresh the endpoint of asset %s. It will be provisioned on demand.", asset), e);
+        } finally {
+            state.refreshing.set(false);
+        }
+    }
+
+    /**
+     * initiates a transfer under the last agreement for the asset at the given connector.
+     * Only if there is no such agreement or it is not accepted anymore, a new agreement is negotiated.
+     *
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset     name of the asset
+     * @param state     the state of the asset
+     * @param previous  the endpoint to be replaced, null if none
+     * @return the new endpoint reference, null if no callback arrived in time
+     */
+    protected EndpointDataReference agreeAndTransfer(String remoteUrl, String asset, AssetState state, EndpointDataReference previous) throws WebApplicationException {
+        AgreementRecord record = agreementStore.get(asset);
+        if (record != null && record.getRemoteUrl().equals(remoteUrl)) {
+            ContractAgreement agreement = record.getAgreement();
+            monitor.debug(String.format("Reusing agreement %s for asset %s at connector %s", agreement.getId(), asset, remoteUrl));
+            state.remoteUrl = remoteUrl;
+            state.assetProperties = record.getAssetProperties();
+            registerAgreement(asset, agreement);
+            try {
+                return transfer(remoteUrl, asset, state, agreement, previous);
+            } catch (WebApplicationException e) {
+                monitor.debug(String.format("Transfer for asset %s under agreement %s failed. Renegotiating.", asset, agreement.getId()));
+                agreementStore.remove(asset, record);
+            }
+        }
+        return transfer(remoteUrl, asset, state, negotiate(remoteUrl, asset, state), previous);
+    }
+
+    /**
+     * looks up the contract offers of an asset, reusing recent lookups
+     *
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset     name of the asset
+     * @return catalog with the offers of the asset
+     * @throws IOException in case the catalog could not be obtained
+     */
+    protected DcatCatalog findContractOffers(String remoteUrl, String asset) throws IOException {
+        long ttl = config.getNegotiationCatalogTtl();
+        if (ttl <= 0) {
+            return dataManagement.findContractOffers(remoteUrl, asset);
+        }
+        String key = remoteUrl + "#" + asset;
+        long now = System.currentTimeMillis();
+        Map.Entry<Long, DcatCatalog> cached = catalogCache.get(key);
+        if (cached != null) {
+            if (cached.getKey() > now) {
+                monitor.debug(String.format("Reusing contract offers for asset %s at connector %s", asset, remoteUrl));
+                return cached.getValue();
+            }
+            catalogCache.remove(key, cached);
+        }
+        DcatCatalog catalog = dataManagement.findContractOffers(remoteUrl, asset);
+        if (catalog.getDatasets().isEmpty()) {
+            catalogCache.remove(key);
+        } else {
+            catalogCache.put(key, Map.entry(now + ttl, catalog));
+        }
+        return catalog;
+    }
+
+    /**
+     * drops the cached contract offers of an asset
+     *
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset     name of the asset
+     */
+    protected void forgetContractOffers(String remoteUrl, String asset) {
+        catalogCache.remove(remoteUrl + "#" + asset);
+    }
 
-        activate(asset);
+    /**
+     * negotiates an agreement for an asset
+     *
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset     name of the asset to agree upon
+     * @param state     the state of the asset
+     * @return the registered agreement
+     */
+    protected ContractAgreement negotiate(String remoteUrl, String asset, AssetState state) throws WebApplicationException {
+        monitor.debug(String.format("About to create an agreement for asset %s at connector %s",asset,remoteUrl));
 
         DcatCatalog contractOffers;
 
         try {
-            contractOffers=dataManagement.findContractOffers(remoteUrl, asset);
+            contractOffers=findContractOffers(remoteUrl, asset);
         } catch(IOException io) {
-            deactivate(asset);
             throw new InternalServerErrorException(String.format("Error when resolving contract offers from %s for asset %s through data management api.",remoteUrl,asset),io);
         }
 
         if (contractOffers.getDatasets().isEmpty()) {
-            deactivate(asset);
             throw new BadRequestException(String.format("There is no contract offer in remote connector %s related to asset %s.", remoteUrl, asset));
         }
 
-        // TODO implement a cost-based offer choice
-        DcatDataset contractOffer = contractOffers.getDatasets().get(0);
+        DcatDataset contractOffer = offerRanking.rank(remoteUrl, asset, contractOffers.getDatasets()).get(0);
         Map<String, JsonValue> assetProperties = DataspaceSynchronizer.getProperties(contractOffer);
         OdrlPolicy policy=contractOffer.hasPolicy();
         String offerId= policy.getId();
@@ -262,13 +821,15 @@ public class AgreementController implements IAgreementController {
                 .protocol("dataspace-protocol-http")
                 .localBusinessPartnerNumber(config.getBusinessPartnerNumber())
                 .remoteBusinessPartnerNumber(contractOffers.getParticipantId())
+                .callbackAddresses(getEventCallbacks("contract.negotiation"))
                 .build();
         String negotiationId;
+        long startTime = System.currentTimeMillis();
 
         try {
             negotiationId=dataManagement.initiateNegotiation(contractNegotiationRequest);
         } catch(IOException ioe) {
-            deactivate(asset);
+            forgetContractOffers(remoteUrl, asset);
             throw new InternalServerErrorException(String.format("Error when initiating negotation for offer %s through data management api.",offerId),ioe);
         }
 
@@ -277,17 +838,9 @@ public class AgreementController implements IAgreementController {
         // Check negotiation state
         ContractNegotiation negotiation = null;
 
-        long startTime = System.currentTimeMillis();
-
         try {
-            while ((System.currentTimeMillis() - startTime < config.getNegotiationTimeout())
-                    && (negotiation == null ||
-                    (!negotiation.getState().equals("FINALIZED") && !negotiation.getState().equals("TERMINATED")))) {
-                Thread.sleep(config.getNegotiationPollInterval());
-                negotiation = dataManagement.getNegotiation(
-                        negotiationId
-                );
-            }
+            negotiation = track(negotiationId, () -> dataManagement.getNegotiation(negotiationId),
+                    status -> status.getState().equals("FINALIZED") || status.getState().equals("TERMINATED"));
         } catch (InterruptedException e) {
             monitor.info(String.format("Negotiation thread for asset %s negotiation %s has been interrupted. Giving up.", asset, negotiationId),e);
         } catch(IOException e) {
@@ -295,7 +848,9 @@ public class AgreementController implements IAgreementController {
         }
 
         if (negotiation == null || !negotiation.getState().equals("FINALIZED")) {
-            deactivate(asset);
+            offerRanking.observe(remoteUrl, contractOffer, System.currentTimeMillis() - startTime, false);
+            // the offer may have been withdrawn
+            forgetContractOffers(remoteUrl, asset);
             if(negotiation!=null) {
                 String errorDetail=negotiation.getErrorDetail();
                 if(errorDetail!=null) {
@@ -305,6 +860,7 @@ public class AgreementController implements IAgreementController {
             throw new InternalServerErrorException(String.format("Contract Negotiation %s for asset %s was not successful.", negotiationId, asset));
         }
 
+        offerRanking.observe(remoteUrl, contractOffer, System.currentTimeMillis() - startTime, true);
         monitor.debug(String.format("About to check agreement %s for contract offer %s (for asset %s at connector %s)",negotiation.getContractAgreementId(),offerId,asset,remoteUrl));
 
         ContractAgreement agreement;
@@ -312,23 +868,40 @@ public class AgreementController implements IAgreementController {
         try {
             agreement=dataManagement.getAgreement(negotiation.getContractAgreementId());
         } catch(IOException ioe) {
-            deactivate(asset);
             throw new InternalServerErrorException(String.format("Error when retrieving agreement %s for negotiation %s.",negotiation.getContractAgreementId(),negotiationId),ioe);
         }
 
         if (agreement == null || !agreement.getAssetId().endsWith(asset)) {
-            deactivate(asset);
             throw new InternalServerErrorException(String.format("Agreement %s does not refer to asset %s.", negotiation.getContractAgreementId(), asset));
         }
 
+        state.remoteUrl = remoteUrl;
+        state.assetProperties = assetProperties;
         registerAgreement(asset,agreement);
+        agreementStore.put(new AgreementRecord(asset, remoteUrl, agreement, assetProperties, null));
+        return agreement;
+    }
 
+    /**
+     * initiates a transfer under an agreement and waits for its endpoint
+     *
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset     name of the agreed asset
+     * @param state     the state of the asset
+     * @param agreement the agreement to transfer under
+     * @param previous  the endpoint to be replaced, null if none
+     * @return the new endpoint reference, null if no callback arrived in time
+     */
+    protected EndpointDataReference transfer(String remoteUrl, String asset, AssetState state, ContractAgreement agreement, EndpointDataReference previous) throws WebApplicationException {
         DataAddress dataDestination = DataAddress.Builder.newInstance()
                 .type(TRANSFER_TYPE)
                 .build();
 
         CallbackAddress address=
                 CallbackAddress.Builder.newInstance().uri(config.getCallbackEndpoint()).build();
+        List<CallbackAddress> addresses = new ArrayList<>();
+        addresses.add(address);
+        addresses.addAll(getEventCallbacks("transfer.process"));
 
         TransferRequest transferRequest = TransferRequest.Builder.newInstance()
                 .assetId(asset)
@@ -338,35 +911,52 @@ public class AgreementController implements IAgreementController {
                 .protocol("dataspace-protocol-http")
                 .dataDestination(dataDestination)
                 .managedResources(false)
-                .callbackAddresses(List.of(address))
+                .callbackAddresses(addresses)
                 .build();
 
-        monitor.debug(String.format("About to initiate transfer for agreement %s (for asset %s at connector %s)",negotiation.getContractAgreementId(),asset,remoteUrl));
+        monitor.debug(String.format("About to initiate transfer for agreement %s (for asset %s at connector %s)",agreement.getId(),asset,remoteUrl));
 
         String transferId;
 
         try {
             transferId=dataManagement.initiateHttpProxyTransferProcess(transferRequest);
         } catch(IOException ioe) {
-            deactivate(asset);
             throw new InternalServerErrorException(String.format("HttpProxy transfer for agreement %s could not be initiated.", agreement.getId()),ioe);
         }
 
+        registerTransfer(state, transferId);
+        expectEndpoint(state, transferId);
+
+        try {
+            return awaitTransfer(remoteUrl, asset, state, agreement, transferId, previous);
+        } finally {
+            forgetEndpoint(transferId);
+        }
+    }
+
+    /**
+     * waits for a transfer to complete and for its endpoint
+     *
+     * @param remoteUrl  ids endpoint url of the remote connector
+     * @param asset      name of the agreed asset
+     * @param state      the state of the asset
+     * @param agreement  the agreement of the transfer
+     * @param transferId id of the transfer process
+     * @param previous   the endpoint to be replaced, null if none
+     * @return the new endpoint reference, null if no callback arrived in time
+     */
+    protected EndpointDataReference awaitTransfer(String remoteUrl, String asset, AssetState state, ContractAgreement agreement, String transferId, EndpointDataReference previous) throws WebApplicationException {
         monitor.debug(String.format("About to check transfer %s (for asset %s at connector %s)",transferId,asset,remoteUrl));
 
-        // Check negotiation state
+        // Check transfer state
         TransferProcess process = null;
 
-        startTime = System.currentTimeMillis();
-
         try {
-            while ((System.currentTimeMillis() - startTime < config.getNegotiationTimeout()) && (process == null || !process.getState().equals("COMPLETED"))) {
-                Thread.sleep(config.getNegotiationPollInterval());
-                process = dataManagement.getTransfer(
-                        transferId
-                );
-                registerProcess(asset, process);
-            }
+            process = track(transferId, () -> {
+                TransferProcess status = dataManagement.getTransfer(transferId);
+                registerProcess(asset, status);
+                return status;
+            }, status -> status.getState().equals("COMPLETED") || status.getState().equals("TERMINATED"));
         } catch (InterruptedException e) {
             monitor.info(String.format("Process thread for asset %s transfer %s has been interrupted. Giving up.", asset, transferId),e);
         } catch(IOException e) {
@@ -374,36 +964,47 @@ public class AgreementController implements IAgreementController {
         }
 
         if (process == null || !process.getState().equals("COMPLETED")) {
-            deactivate(asset);
             throw new InternalServerErrorException(String.format("Transfer process %s for agreement %s and asset %s could not be provisioned.", transferId, agreement.getId(), asset));
         }
 
         // finally wait a bit for the endpoint data reference in case
         // that the process was signalled earlier than the callbacks
-        startTime = System.currentTimeMillis();
-
         EndpointDataReference reference=null;
 
         try {
-            while ((System.currentTimeMillis() - startTime < config.getNegotiationTimeout()) && (reference == null)) {
-                Thread.sleep(config.getNegotiationPollInterval());
-                synchronized(endpointStore) {
-                    reference=endpointStore.get(asset);
-                }
-            }
-        } catch (InterruptedException e) {
+            reference = track(transferId, () -> checkEndpoint(state, transferId, previous), status -> true);
+        } catch (IOException | InterruptedException e) {
             monitor.info(String.format("Wait thread for reference to asset %s has been interrupted. Giving up.", asset),e);
         }
 
-        // mark the type in the endpoint
-        if(reference!=null) {
-            for(Map.Entry<String,JsonValue> prop : assetProperties.entrySet()) {
-                reference.getProperties().put(prop.getKey(), JsonLd.asString(prop.getValue()));
-            }
-        }
+        return reference;
+    }
 
-        // now delegate to the original getter
-        return get(asset);
+    /**
+     * called when a transfer has been initiated whose endpoint is awaited
+     * @param state the state of the asset
+     * @param transferId id of the transfer process
+     */
+    protected void expectEndpoint(AssetState state, String transferId) {
+    }
+
+    /**
+     * checks for the endpoint of a transfer
+     * @param state the state of the asset
+     * @param transferId id of the transfer process
+     * @param previous the endpoint to be replaced, null if none
+     * @return the new endpoint, null if not (yet) arrived
+     */
+    protected EndpointDataReference checkEndpoint(AssetState state, String transferId, EndpointDataReference previous) {
+        EndpointDataReference reference = state.getEndpoint();
+        return reference == previous ? null : reference;
+    }
+
+    /**
+     * called when the endpoint of a transfer is not awaited anymore
+     * @param transferId id of the transfer process
+     */
+    protected void forgetEndpoint(String transferId) {
     }
 
 }
@@ -0,0 +1,95 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import com.nimbusds.jose.JWSObject;
+import jakarta.json.JsonValue;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.model.ContractAgreement;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * An agreement for an asset which outlives the transfers made under it,
+ * together with the endpoint of the latest transfer (if any)
+ */
+public class AgreementRecord {
+
+    protected final String asset;
+    protected final String remoteUrl;
+    protected final ContractAgreement agreement;
+    protected final Map<String, JsonValue> assetProperties;
+    protected final EndpointDataReference endpoint;
+
+    /**
+     * creates a record
+     * @param asset name of the asset
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param agreement the agreement
+     * @param assetProperties properties of the asset from the contract offer
+     * @param endpoint endpoint of the latest transfer, may be null
+     */
+    public AgreementRecord(String asset, String remoteUrl, ContractAgreement agreement, Map<String, JsonValue> assetProperties, EndpointDataReference endpoint) {
+        this.asset = asset;
+        this.remoteUrl = remoteUrl;
+        this.agreement = agreement;
+        this.assetProperties = assetProperties;
+        this.endpoint = endpoint;
+    }
+
+    public String getAsset() {
+        return asset;
+    }
+
+    public String getRemoteUrl() {
+        return remoteUrl;
+    }
+
+    public ContractAgreement getAgreement() {
+        return agreement;
+    }
+
+    public Map<String, JsonValue> getAssetProperties() {
+        return assetProperties;
+    }
+
+    public EndpointDataReference getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * decodes the token of an endpoint reference
+     * @param reference endpoint reference
+     * @return expiry of the token in milliseconds since the epoch, -1 if the token is missing or invalid
+     */
+    public static long getExpiry(EndpointDataReference reference) {
+        String token = reference.getAuthCode();
+        if (token != null) {
+            try {
+                Object expiryObject = JWSObject.parse(token).getPayload().toJSONObject().get("exp");
+                if (expiryObject instanceof Long) {
+                    // token times are in seconds
+                    return (Long) expiryObject * 1000;
+                }
+            } catch (ParseException | NumberFormatException e) {
+                // an invalid token does not expire, it is never valid
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,180 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import jakarta.ws.rs.InternalServerErrorException;
+import jakarta.ws.rs.WebApplicationException;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.service.CostBasedOfferRanking;
+import org.eclipse.tractusx.agents.edc.service.DataManagement;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * An agreement controller for one of several replicas which share
+ * a store of agreements. An asset is only negotiated by one replica at a time,
+ * the others take over the resulting endpoint from the store. Endpoints which are
+ * posted to a replica that did not initiate the transfer are handed over through the cluster.
+ */
+public class DistributedAgreementController extends AgreementController {
+
+    protected final IAgreementCluster cluster;
+    protected final String replica = UUID.randomUUID().toString();
+
+    /**
+     * creates a distributed agreement controller
+     *
+     * @param monitor        logger
+     * @param config         typed config
+     * @param dataManagement data management service wrapper
+     * @param agreementStore store for agreements shared by all replicas
+     * @param cluster        coordination of the replicas
+     */
+    public DistributedAgreementController(Monitor monitor, AgentConfig config, DataManagement dataManagement, IAgreementStore agreementStore, IAgreementCluster cluster) {
+        this(monitor, config, dataManagement, agreementStore, new CostBasedOfferRanking(config), cluster);
+    }
+
+    /**
+     * creates a distributed agreement controller
+     *
+     * @param monitor        logger
+     * @param config         typed config
+     * @param dataManagement data management service wrapper
+     * @param agreementStore store for agreements shared by all replicas
+     * @param offerRanking   strategy to choose among several contract offers
+     * @param cluster        coordination of the replicas
+     */
+    public DistributedAgreementController(Monitor monitor, AgentConfig config, DataManagement dataManagement, IAgreementStore agreementStore, IOfferRanking offerRanking, IAgreementCluster cluster) {
+        super(monitor, config, dataManagement, agreementStore, offerRanking);
+        this.cluster = cluster;
+    }
+
+    /**
+     * render nicely
+     */
+    @Override
+    public String toString() {
+        return super.toString() + "@" + replica;
+    }
+
+    /**
+     * takes over the endpoint provisioned by another replica or
+     * provisions the asset while holding the claim on it
+     */
+    @Override
+    protected EndpointDataReference provision(String remoteUrl, String asset, AssetState state) throws WebApplicationException {
+        // a claim lasts for the negotiation, the transfer and the wait for the endpoint
+        long leaseTime = 3 * config.getNegotiationTimeout();
+        Boolean claimed = null;
+        try {
+            claimed = track(asset, () -> {
+                AgreementRecord record = agreementStore.get(asset);
+                if (record != null && record.getEndpoint() != null && isValid(asset, record.getEndpoint())) {
+                    adopt(state, record);
+                    return Boolean.FALSE;
+                }
+                return cluster.claim(asset, replica, leaseTime) ? Boolean.TRUE : null;
+            }, status -> true);
+        } catch (IOException e) {
+            monitor.warning(String.format("Could not check the claim on asset %s.", asset), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException(String.format("Waiting for the claim on asset %s has been interrupted.", asset), e);
+        }
+        if (Boolean.FALSE.equals(claimed)) {
+            monitor.debug(String.format("Took over the endpoint of asset %s from another replica.", asset));
+            state.provisioning = false;
+            return get(asset);
+        }
+        if (claimed == null) {
+            // never negotiate next to another replica
+            throw new InternalServerErrorException(String.format("Asset %s could not be claimed in time.", asset));
+        }
+        try {
+            return super.provision(remoteUrl, asset, state);
+        } finally {
+            cluster.release(asset, replica);
+        }
+    }
+
+    /**
+     * refreshes the endpoint while holding the claim on the asset, unless
+     * another replica has already stored a replacing endpoint which is taken over.
+     * If another replica holds the claim, the refresh is left to that replica.
+     */
+    @Override
+    protected void refresh(AssetState state, EndpointDataReference previous) {
+        String asset = state.asset;
+        boolean claimed = false;
+        try {
+            claimed = cluster.claim(asset, replica, 3 * config.getNegotiationTimeout());
+            if (!claimed) {
+                monitor.debug(String.format("Asset %s is being refreshed by another replica.", asset));
+                return;
+            }
+            AgreementRecord record = agreementStore.get(asset);
+            if (record != null && record.getEndpoint() != null && isValid(asset, record.getEndpoint())
+                    && !record.getEndpoint().getId().equals(previous.getId())) {
+                adopt(state, record);
+                state.used = false;
+                monitor.debug(String.format("Took over the refreshed endpoint of asset %s from another replica.", asset));
+                return;
+            }
+            super.refresh(state, previous);
+        } finally {
+            if (claimed) {
+                cluster.release(asset, replica);
+            }
+            state.refreshing.set(false);
+        }
+    }
+
+    @Override
+    protected void receiveForeignCallback(EndpointDataReference dataReference) {
+        if (cluster.deliver(dataReference)) {
+            monitor.debug(String.format("Agreement %s has been handed over to another replica.", dataReference.getId()));
+        } else {
+            super.receiveForeignCallback(dataReference);
+        }
+    }
+
+    @Override
+    protected void expectEndpoint(AssetState state, String transferId) {
+        cluster.expect(transferId);
+    }
+
+    @Override
+    protected EndpointDataReference checkEndpoint(AssetState state, String transferId, EndpointDataReference previous) {
+        EndpointDataReference reference = super.checkEndpoint(state, transferId, previous);
+        if (reference == null) {
+            EndpointDataReference delivered = cluster.collect(transferId);
+            if (delivered != null && transferId.equals(state.transferId)) {
+                monitor.debug(String.format("Agreement %s has been handed over from another replica.", transferId));
+                install(state, delivered);
+                reference = delivered;
+            }
+        }
+        return reference;
+    }
+
+    @Override
+    protected void forgetEndpoint(String transferId) {
+        cluster.forget(transferId);
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the executor which runs federated service calls
+ * (including the contract negotiations they trigger).
+ */
+public class ExecutorServiceFactory {
+
+    /**
+     * executor modes
+     */
+    public static final String SHARED_MODE = "shared";
+    public static final String ELASTIC_MODE = "elastic";
+    public static final String VIRTUAL_MODE = "virtual";
+
+    /**
+     * creates the federation executor
+     * @param config agent config
+     * @param monitor logging subsystem
+     * @param sharedExecutor the scheduled pool which is used in shared mode
+     * @return the executor for federated calls
+     */
+    public static ExecutorService createFederationExecutor(AgentConfig config, Monitor monitor, ExecutorService sharedExecutor) {
+        return createFederationExecutor(config, monitor, sharedExecutor, Executors.class);
+    }
+
+    /**
+     * creates the federation executor
+     * @param config agent config
+     * @param monitor logging subsystem
+     * @param sharedExecutor the scheduled pool which is used in shared mode
+     * @param executors class which may offer a virtual thread per task executor
+     * @return the executor for federated calls
+     */
+    protected static ExecutorService createFederationExecutor(AgentConfig config, Monitor monitor, ExecutorService sharedExecutor, Class<?> executors) {
+        String mode = config.getFederationExecutorMode();
+        switch (mode) {
+            case VIRTUAL_MODE:
+                try {
+                    // only available in Java 21+ runtimes
+                    ExecutorService virtualExecutor = (ExecutorService) executors.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                    monitor.info("Federated calls run on virtual threads.");
+                    return virtualExecutor;
+                } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                    monitor.warning(String.format("Runtime does not support virtual threads (%s). Falling back to %s mode.", e, ELASTIC_MODE));
+                    return createElastic(config, monitor);
+                }
+            case ELASTIC_MODE:
+                return createElastic(config, monitor);
+            case SHARED_MODE:
+                return sharedExecutor;
+            default:
+                monitor.warning(String.format("Unknown federation executor mode %s. Falling back to %s mode.", mode, SHARED_MODE));
+                return sharedExecutor;
+        }
+    }
+
+    /**
+     * creates a dedicated, but bounded thread per task
+     * @param config agent config
+     * @param monitor logging subsystem
+     * @return the elastic executor
+     */
+    protected static ExecutorService createElastic(AgentConfig config, Monitor monitor) {
+        int maxThreads = config.getFederationExecutorThreads();
+        monitor.info(String.format("Federated calls run on a dedicated thread per task (at most %d threads).", maxThreads));
+        // beyond the maximum, the submitting thread runs the task itself, which throttles further fan-out
+        return new ThreadPoolExecutor(0, maxThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new AgentThreadFactory("agent-federation-"), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * creates named daemon threads
+     */
+    protected static class AgentThreadFactory implements ThreadFactory {
+
+        protected final String prefix;
+        protected final AtomicInteger count = new AtomicInteger();
+
+        protected AgentThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+
+/**
+ * interface to the coordination of several agent replicas
+ * which share their agreements (see {@link IAgreementStore})
+ */
+public interface IAgreementCluster {
+
+    /**
+     * try to become the replica which provisions an asset
+     * @param asset name of the asset
+     * @param replica id of the claiming replica
+     * @param leaseTime milliseconds after which the claim is regarded as abandoned
+     * @return whether the claim succeeded, false if another replica holds it
+     */
+    boolean claim(String asset, String replica, long leaseTime);
+
+    /**
+     * give up a claim
+     * @param asset name of the asset
+     * @param replica id of the claiming replica
+     */
+    void release(String asset, String replica);
+
+    /**
+     * announce that a replica waits for the endpoint of a transfer
+     * @param transferId id of the transfer process
+     */
+    void expect(String transferId);
+
+    /**
+     * hand over an endpoint which has been posted to a replica that did not initiate the transfer
+     * @param reference the endpoint
+     * @return whether some replica waits for the endpoint, false if it has been dropped
+     */
+    boolean deliver(EndpointDataReference reference);
+
+    /**
+     * fetch an endpoint which has been delivered by another replica
+     * @param transferId id of the transfer process
+     * @return the endpoint, null if not (yet) delivered
+     */
+    EndpointDataReference collect(String transferId);
+
+    /**
+     * stop waiting for the endpoint of a transfer
+     * @param transferId id of the transfer process
+     */
+    void forget(String transferId);
+}
@@ -0,0 +1,51 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import java.util.Collection;
+
+/**
+ * interface to a store of agreements (and their latest endpoints)
+ */
+public interface IAgreementStore {
+
+    /**
+     * return the record of an asset
+     * @param asset name of the asset
+     * @return record, null if there is no agreement for the asset
+     */
+    AgreementRecord get(String asset);
+
+    /**
+     * register (or replace) the record of an asset
+     * @param record the record to store
+     */
+    void put(AgreementRecord record);
+
+    /**
+     * drop the record of an asset
+     * @param asset name of the asset
+     * @param record the record which is regarded as outdated
+     * @return whether the given record has been removed, false if it has been replaced in the meantime
+     */
+    boolean remove(String asset, AgreementRecord record);
+
+    /**
+     * @return all stored records
+     */
+    Collection<AgreementRecord> getAll();
+}
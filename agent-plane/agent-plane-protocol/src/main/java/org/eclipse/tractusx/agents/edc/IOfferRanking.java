@@ -0,0 +1,46 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import org.eclipse.tractusx.agents.edc.model.DcatDataset;
+
+import java.util.List;
+
+/**
+ * interface to a strategy which orders the contract offers
+ * of a remote asset by their expected negotiation cost
+ */
+public interface IOfferRanking {
+
+    /**
+     * order the offers of an asset
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param asset name of the asset
+     * @param offers the offers found in the catalogue of the remote connector
+     * @return the offers, cheapest first
+     */
+    List<DcatDataset> rank(String remoteUrl, String asset, List<DcatDataset> offers);
+
+    /**
+     * learn from the outcome of a negotiation
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param offer the negotiated offer
+     * @param duration milliseconds the negotiation took
+     * @param success whether the negotiation resulted in an agreement
+     */
+    void observe(String remoteUrl, DcatDataset offer, long duration, boolean success);
+}
@@ -27,18 +27,21 @@ import java.net.ProxySelector;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Flow;
 
 /**
  * Wrapper that hides OkHttpClient behind a java.net.http.HttpClient
  */
 public class HttpClientAdapter extends HttpClient {
 
+    /**
+     * how long to wait for the next buffer of a request body
+     */
+    public static final long BODY_TIMEOUT = 2000;
+
     protected final OkHttpClient delegate;
 
     /**
@@ -95,77 +98,70 @@ public class HttpClientAdapter extends HttpClient {
         return Optional.empty();
     }
 
-    @Override
-    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
+    /**
+     * translates a java.net.http request into an OkHttp request,
+     * the body is streamed when the call is executed
+     * @param request the java.net.http request
+     * @return OkHttp request
+     * @throws IOException if the request cannot be translated
+     */
+    protected Request wrap(HttpRequest request) throws IOException {
         var builder=new Request.Builder();
         request.headers().map().forEach( (key,values) -> values.forEach( value -> builder.header(key,value)));
+        builder.url(request.uri().toURL());
         if(request.bodyPublisher().isPresent()) {
-            var bodyPublisher = request.bodyPublisher().get();
-
-            var subscriber = new Flow.Subscriber<ByteBuffer>() {
-
-                private ByteBuffer body;
-                private Throwable problem;
-                private boolean ready;
-
-                @Override
-                public void onSubscribe(Flow.Subscription subscription) {
-                    subscription.request(bodyPublisher.contentLength());
-                }
-
-                @Override
-                public void onNext(ByteBuffer item) {
-                    if(body==null) {
-                        body = item;
-                    } else if(item!=null) {
-                        ByteBuffer combined=ByteBuffer.allocate(body.capacity()+item.capacity());
-                        combined.put(body);
-                        combined.put(item);
-                        combined.flip();
-                        body=combined;
-                    }
-                }
-
-                @Override
-                public void onError(Throwable throwable) {
-                    problem = throwable;
-                }
-
-                @Override
-                public void onComplete() {
-                    ready = true;
-                }
-            };
-
-            bodyPublisher.subscribe(subscriber);
-            long startTime = System.currentTimeMillis();
-            while (System.currentTimeMillis() - startTime < 2000 && !subscriber.ready) {
-                Thread.sleep(100);
-            }
-            if (!subscriber.ready) {
-                throw new IOException("Could not wrap request because body cannot be read");
-            }
-            if (subscriber.problem != null) {
-                throw new IOException("Could not wrap request because body cannot be read",subscriber.problem);
-            }
-            builder.method(request.method(), RequestBody.create(subscriber.body.array(),MediaType.parse(request.headers().firstValue("Content-Type").get())));
+            MediaType mediaType=request.headers().firstValue("Content-Type").map(MediaType::parse).orElse(null);
+            builder.method(request.method(), new PublisherRequestBody(request.bodyPublisher().get(),mediaType,BODY_TIMEOUT));
         } else {
             builder.method(request.method(), null);
         }
-        builder.url(request.uri().toURL());
-        Request okRequest=builder.build();
-        Call okCall = delegate.newCall(okRequest);
+        return builder.build();
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
+        Call okCall = delegate.newCall(wrap(request));
         Response okResponse=okCall.execute();
         return (HttpResponse<T>) new HttpResponseAdapter(okResponse,request);
     }
 
+    /**
+     * non-blocking variant which enqueues the call at the OkHttp dispatcher,
+     * cancelling the resulting future cancels the call
+     */
     @Override
     public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
-        throw new UnsupportedOperationException("sendAsync");
+        CompletableFuture<HttpResponse<T>> result=new CompletableFuture<>();
+        Call okCall;
+        try {
+            okCall = delegate.newCall(wrap(request));
+        } catch(IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete( (response,failure) -> {
+            if(result.isCancelled()) {
+                okCall.cancel();
+            }
+        });
+        okCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if(!result.complete((HttpResponse<T>) new HttpResponseAdapter(response,request))) {
+                    response.close();
+                }
+            }
+        });
+        return result;
     }
 
     @Override
     public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler, HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
-        throw new UnsupportedOperationException("sendAsync");
+        return sendAsync(request,responseBodyHandler);
     }
 }
@@ -0,0 +1,126 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.http;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OkHttp request body which streams the buffers of a java.net.http body publisher
+ * into the sink as they arrive (no intermediate copies, works with direct buffers).
+ * Each write subscribes anew, so the body can be retried if the publisher allows it.
+ */
+public class PublisherRequestBody extends RequestBody {
+
+    /**
+     * marks the end of the publication
+     */
+    protected static final Object COMPLETE = new Object();
+
+    protected final HttpRequest.BodyPublisher publisher;
+    protected final MediaType mediaType;
+    protected final long timeout;
+
+    /**
+     * creates a new body
+     * @param publisher the java.net.http body publisher
+     * @param mediaType content type, may be null
+     * @param timeout how long to wait for the next buffer in milliseconds
+     */
+    public PublisherRequestBody(HttpRequest.BodyPublisher publisher, MediaType mediaType, long timeout) {
+        this.publisher = publisher;
+        this.mediaType = mediaType;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return publisher.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                signals.add(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                signals.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add(COMPLETE);
+            }
+        });
+        Flow.Subscription subscription = null;
+        boolean completed = false;
+        try {
+            while (!completed) {
+                Object signal = signals.poll(timeout, TimeUnit.MILLISECONDS);
+                if (signal == null) {
+                    throw new IOException("Could not wrap request because body cannot be read");
+                } else if (signal instanceof Flow.Subscription) {
+                    subscription = (Flow.Subscription) signal;
+                    subscription.request(1);
+                } else if (signal instanceof ByteBuffer) {
+                    ByteBuffer buffer = (ByteBuffer) signal;
+                    while (buffer.hasRemaining()) {
+                        sink.write(buffer);
+                    }
+                    subscription.request(1);
+                } else if (signal instanceof Throwable) {
+                    completed = true;
+                    throw new IOException("Could not wrap request because body cannot be read", (Throwable) signal);
+                } else {
+                    completed = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading request body");
+        } finally {
+            if (!completed && subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
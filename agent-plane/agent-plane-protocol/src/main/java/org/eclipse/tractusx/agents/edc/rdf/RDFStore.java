@@ -32,8 +32,19 @@ import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.sys.TDBInternal;
 import org.eclipse.edc.spi.monitor.Monitor;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
 /**
  * a service sitting on a local RDF store/graph
  * (which hosts the ontology and the federated dataspace
@@ -50,6 +61,16 @@ public class RDFStore {
 
     protected final MonitorWrapper monitorWrapper;
 
+    /**
+     * file in the persistent store directory which records the asset files loaded
+     */
+    public static final String LOADED_ASSETS_FILE = "loaded-assets.txt";
+
+    /**
+     * hash recorded for asset files which are not local and hence not checked for changes
+     */
+    public static final String UNCHECKED_HASH = "-";
+
     /**
      * create a new RDF store (and initialise with a given ttl file)
      * @param config EDC config
@@ -57,7 +78,13 @@ public class RDFStore {
      */
     public RDFStore(AgentConfig config, Monitor monitor) {
         this.config=config;
-        this.dataset = DatasetGraphFactory.createTxnMem();
+        String directory=config.getRdfStoreDirectory();
+        if(directory!=null) {
+            monitor.info(String.format("Connecting to persistent rdf store in directory %s",directory));
+            this.dataset = DatabaseMgr.connectDatasetGraph(directory);
+        } else {
+            this.dataset = DatasetGraphFactory.createTxnMem();
+        }
         DataService.Builder dataService = DataService.newBuilder(dataset);
         this.service=dataService.build();
         api=new DataAccessPoint(config.getAccessPoint(), service);
@@ -66,27 +93,126 @@ public class RDFStore {
         monitor.debug(String.format("Activating data service %s under access point %s",service,api));
         service.goActive();
         // read file with ontology, share this dataset with the catalogue sync procedure
-        if(config.getAssetFiles()!=null) {
-            startTx();
-            StreamRDF dest = StreamRDFLib.dataset(dataset);
-            StreamRDF graphDest = StreamRDFLib.extendTriplesToQuads(getDefaultGraph(),dest);
-            StreamRDFCounting countingDest = StreamRDFLib.count(graphDest);
-            ErrorHandler errorHandler = ErrorHandlerFactory.errorHandlerStd(monitorWrapper);
-            for(String assetFile : config.getAssetFiles()) {
-                RDFParser.create()
-                        .errorHandler(errorHandler)
-                        .source(assetFile)
-                        .lang(Lang.TTL)
-                        .parse(countingDest);
-                monitor.debug(String.format("Initialised asset %s with file %s resulted in %d triples",config.getDefaultAsset(),assetFile,countingDest.countTriples()));
+        String[] assetFiles=config.getAssetFiles()!=null ? config.getAssetFiles() : new String[0];
+        if(directory!=null) {
+            String loadedAssets=describeAssets(assetFiles);
+            if(!config.isRdfStoreReload() && loadedAssets.equals(getLoadedAssets(directory))) {
+                dataset.begin(TxnType.READ);
+                try {
+                    monitor.info(String.format("Reusing asset %s with %d triples from persistent rdf store",config.getDefaultAsset(),dataset.getGraph(getDefaultGraph()).size()));
+                } finally {
+                    dataset.end();
+                }
+                if(loadedAssets.contains("\t"+UNCHECKED_HASH)) {
+                    monitor.info(String.format("Remote asset files are not checked for changes, set %s to reload them.",AgentConfig.RDF_STORE_RELOAD_PROPERTY));
+                }
+            } else {
+                startTx();
+                try {
+                    // the files have changed since the last load (or a reload is forced), start from scratch
+                    dataset.clear();
+                    load(assetFiles);
+                    commit();
+                } catch(RuntimeException | Error e) {
+                    abort();
+                    throw e;
+                }
+                setLoadedAssets(directory,loadedAssets);
             }
+        } else if(assetFiles.length>0) {
+            startTx();
+            load(assetFiles);
             commit();
-            monitor.info(String.format("Initialised asset %s with %d triples from %d files",config.getDefaultAsset(),countingDest.countTriples(),config.getAssetFiles().length));
         } else {
             monitor.info(String.format("Initialised asset %s with 0 triples.",config.getDefaultAsset()));
         }
     }
 
+    /**
+     * parses the asset files into the default graph within the current write transaction
+     * @param assetFiles sources of the asset files
+     */
+    protected void load(String[] assetFiles) {
+        StreamRDF dest = StreamRDFLib.dataset(dataset);
+        StreamRDF graphDest = StreamRDFLib.extendTriplesToQuads(getDefaultGraph(),dest);
+        StreamRDFCounting countingDest = StreamRDFLib.count(graphDest);
+        ErrorHandler errorHandler = ErrorHandlerFactory.errorHandlerStd(monitorWrapper);
+        for(String assetFile : assetFiles) {
+            RDFParser.create()
+                    .errorHandler(errorHandler)
+                    .source(assetFile)
+                    .lang(Lang.TTL)
+                    .parse(countingDest);
+            monitor.debug(String.format("Initialised asset %s with file %s resulted in %d triples",config.getDefaultAsset(),assetFile,countingDest.countTriples()));
+        }
+        monitor.info(String.format("Initialised asset %s with %d triples from %d files",config.getDefaultAsset(),countingDest.countTriples(),assetFiles.length));
+    }
+
+    /**
+     * describes the asset files by their source and, if they are local files, their content hash
+     * @param assetFiles sources of the asset files
+     * @return one line per asset file
+     */
+    protected String describeAssets(String[] assetFiles) {
+        StringBuilder description=new StringBuilder();
+        for(String assetFile : assetFiles) {
+            description.append(assetFile).append('\t').append(getHash(assetFile)).append('\n');
+        }
+        return description.toString();
+    }
+
+    /**
+     * @param assetFile source of an asset file
+     * @return SHA-256 hash of a local file, UNCHECKED_HASH for other sources
+     */
+    protected String getHash(String assetFile) {
+        try {
+            Path path=assetFile.startsWith("file:") ? Path.of(URI.create(assetFile)) : Path.of(assetFile);
+            if(Files.isRegularFile(path)) {
+                MessageDigest digest=MessageDigest.getInstance("SHA-256");
+                return Base64.getEncoder().encodeToString(digest.digest(Files.readAllBytes(path)));
+            }
+        } catch(IllegalArgumentException e) {
+            // not a local file (also covers invalid paths)
+        } catch(IOException e) {
+            monitor.warning(String.format("Could not hash asset file %s.",assetFile),e);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.",e);
+        }
+        return UNCHECKED_HASH;
+    }
+
+    /**
+     * @param directory persistent store directory
+     * @return the asset files which have been loaded into the persistent store, null if none
+     */
+    protected String getLoadedAssets(String directory) {
+        Path loaded=Path.of(directory,LOADED_ASSETS_FILE);
+        if(!Files.exists(loaded)) {
+            return null;
+        }
+        try {
+            return Files.readString(loaded,StandardCharsets.UTF_8);
+        } catch(IOException e) {
+            monitor.warning(String.format("Could not read loaded assets from %s, reloading.",loaded),e);
+            return null;
+        }
+    }
+
+    /**
+     * records the asset files after they have been committed to the persistent store
+     * @param directory persistent store directory
+     * @param loadedAssets the asset files
+     */
+    protected void setLoadedAssets(String directory, String loadedAssets) {
+        Path loaded=Path.of(directory,LOADED_ASSETS_FILE);
+        try {
+            Files.writeString(loaded,loadedAssets,StandardCharsets.UTF_8);
+        } catch(IOException e) {
+            monitor.warning(String.format("Could not record loaded assets in %s, assets will be reloaded on next start.",loaded),e);
+        }
+    }
+
     /**
      * @return name of the default graph
      */
@@ -115,6 +241,13 @@ public class RDFStore {
         return dataset;
     }
 
+    /**
+     * @return whether the store is kept on disk across restarts
+     */
+    public boolean isPersistent() {
+        return config.getRdfStoreDirectory()!=null;
+    }
+
     /**
      * starts a write transaction
      */
@@ -135,4 +268,14 @@ public class RDFStore {
     public void abort() {
         dataset.abort();
     }
+
+    /**
+     * releases the persistent store (a memory store is left to the garbage collector)
+     */
+    public void close() {
+        if(isPersistent()) {
+            monitor.debug(String.format("Releasing persistent rdf store in directory %s",config.getRdfStoreDirectory()));
+            TDBInternal.expel(dataset);
+        }
+    }
 }
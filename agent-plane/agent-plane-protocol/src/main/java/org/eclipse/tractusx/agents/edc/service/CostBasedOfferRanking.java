@@ -0,0 +1,123 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import org.eclipse.tractusx.agents.edc.AgentConfig;
+import org.eclipse.tractusx.agents.edc.IOfferRanking;
+import org.eclipse.tractusx.agents.edc.model.DcatDataset;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ranks contract offers by the observed duration of their negotiations.
+ * Offers are compared by their policy (regardless of the offer id which
+ * differs per asset). Policies which have already been agreed upon at
+ * a connector come first, policies which failed to finalize come last.
+ * Policies without observations keep the order of the catalogue and
+ * are expected to take half of the negotiation timeout.
+ */
+public class CostBasedOfferRanking implements IOfferRanking {
+
+    /**
+     * weight of a new observation in the moving average
+     */
+    public static final double SMOOTHING = 0.3;
+
+    protected final long timeout;
+
+    /**
+     * expected milliseconds per connector and policy
+     */
+    protected final Map<String, Double> costs = new ConcurrentHashMap<>();
+
+    /**
+     * connectors and policies whose last negotiation resulted in an agreement
+     */
+    protected final Set<String> agreed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * creates a new ranking
+     * @param config typed config
+     */
+    public CostBasedOfferRanking(AgentConfig config) {
+        this.timeout = config.getNegotiationTimeout();
+    }
+
+    /**
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param offer a contract offer
+     * @return key of the policy of the offer at the connector
+     */
+    protected String getKey(String remoteUrl, DcatDataset offer) {
+        JsonObjectBuilder policy = Json.createObjectBuilder();
+        offer.hasPolicy().getProperties().forEach((key, value) -> {
+            if (!"@id".equals(key)) {
+                policy.add(key, value);
+            }
+        });
+        return remoteUrl + "#" + policy.build();
+    }
+
+    /**
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param offer a contract offer
+     * @return whether we already hold an agreement under the policy of the offer
+     */
+    public boolean isAgreed(String remoteUrl, DcatDataset offer) {
+        return agreed.contains(getKey(remoteUrl, offer));
+    }
+
+    /**
+     * @param remoteUrl ids endpoint url of the remote connector
+     * @param offer a contract offer
+     * @return expected milliseconds to negotiate the offer
+     */
+    public double getCost(String remoteUrl, DcatDataset offer) {
+        return costs.getOrDefault(getKey(remoteUrl, offer), timeout / 2.0);
+    }
+
+    @Override
+    public List<DcatDataset> rank(String remoteUrl, String asset, List<DcatDataset> offers) {
+        if (offers.size() < 2) {
+            return offers;
+        }
+        List<DcatDataset> ranked = new ArrayList<>(offers);
+        ranked.sort(Comparator.comparing((DcatDataset offer) -> !isAgreed(remoteUrl, offer))
+                .thenComparingDouble(offer -> getCost(remoteUrl, offer)));
+        return ranked;
+    }
+
+    @Override
+    public void observe(String remoteUrl, DcatDataset offer, long duration, boolean success) {
+        // a failure costs the full timeout and a renegotiation
+        double cost = success ? duration : duration + timeout;
+        String key = getKey(remoteUrl, offer);
+        if (success) {
+            agreed.add(key);
+        } else {
+            agreed.remove(key);
+        }
+        costs.merge(key, cost, (previous, next) -> previous + SMOOTHING * (next - previous));
+    }
+}
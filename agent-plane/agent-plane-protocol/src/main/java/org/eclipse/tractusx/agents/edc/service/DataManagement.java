@@ -18,6 +18,8 @@ package org.eclipse.tractusx.agents.edc.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
 import okhttp3.*;
 import org.eclipse.tractusx.agents.edc.AgentConfig;
 import jakarta.ws.rs.InternalServerErrorException;
@@ -25,6 +27,7 @@ import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.query.Criterion;
 import org.eclipse.edc.spi.query.QuerySpec;
 import org.eclipse.edc.spi.types.TypeManager;
+import org.eclipse.edc.spi.types.domain.callback.CallbackAddress;
 import org.eclipse.tractusx.agents.edc.jsonld.JsonLd;
 import org.eclipse.tractusx.agents.edc.model.*;
 
@@ -32,6 +35,7 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 
@@ -103,7 +107,8 @@ public class DataManagement {
             "  \"offerId\": \"%4$s\",\n" +
             "  \"assetId\": \"%5$s\",\n" +
             "  \"policy\": %6$s\n" +
-            "}\n" +
+            "},\n" +
+            "\"callbackAddresses\": %7$s\n" +
             "}";
 
     public static final String NEGOTIATION_INITIATE_CALL = "%s/contractnegotiations";
@@ -126,6 +131,7 @@ public class DataManagement {
             "        \"receiverHttpEndpoint\": \"%4$s\"\n" +
             "    },\n" +
             "    \"protocol\": \"dataspace-protocol-http\",\n" +
+            "    \"callbackAddresses\": %6$s,\n" +
             "    \"transferType\": {\n" +
             "        \"contentType\": \"application/octet-stream\",\n" +
             "        \"isFinite\": true\n" +
@@ -156,6 +162,24 @@ public class DataManagement {
         this.config=config;
     }
 
+    /**
+     * renders the callback addresses which subscribe to state change events
+     * @param callbackAddresses addresses of a request
+     * @return json array of the event callbacks
+     */
+    public static String asEventCallbacks(List<CallbackAddress> callbackAddresses) {
+        JsonArrayBuilder callbacks = Json.createArrayBuilder();
+        for (CallbackAddress address : callbackAddresses) {
+            if (address.getEvents() != null && !address.getEvents().isEmpty()) {
+                callbacks.add(Json.createObjectBuilder()
+                        .add("uri", address.getUri())
+                        .add("events", Json.createArrayBuilder(address.getEvents()))
+                        .add("transactional", address.isTransactional()));
+            }
+        }
+        return callbacks.build().toString();
+    }
+
     /**
      * Search for a dedicated asset
      * TODO imperformant
@@ -180,6 +204,18 @@ public class DataManagement {
      * @throws IOException in case something went wrong
      */
     public DcatCatalog getCatalog(String remoteControlPlaneIdsUrl, QuerySpec spec) throws IOException {
+        return getCatalog(remoteControlPlaneIdsUrl, spec, 0);
+    }
+
+    /**
+     * Access the catalogue within a given time
+     * @param remoteControlPlaneIdsUrl url of the remote control plane ids endpoint
+     * @param spec query specification
+     * @param timeout maximal milliseconds for the whole call, 0 if only the client timeouts apply
+     * @return catalog object
+     * @throws IOException in case something went wrong or the call timed out
+     */
+    public DcatCatalog getCatalog(String remoteControlPlaneIdsUrl, QuerySpec spec, long timeout) throws IOException {
 
         var url = String.format(CATALOG_CALL,config.getControlPlaneManagementUrl());
         var catalogSpec =String.format(CATALOG_REQUEST_BODY,String.format(DSP_PATH,remoteControlPlaneIdsUrl),objectMapper.writeValueAsString(spec));
@@ -187,7 +223,9 @@ public class DataManagement {
         var request = new Request.Builder().url(url).post(RequestBody.create(catalogSpec,MediaType.parse("application/json")));
         config.getControlPlaneManagementHeaders().forEach(request::addHeader);
 
-        try (var response = httpClient.newCall(request.build()).execute()) {
+        var client = timeout > 0 ? httpClient.newBuilder().callTimeout(timeout, TimeUnit.MILLISECONDS).build() : httpClient;
+
+        try (var response = client.newCall(request.build()).execute()) {
             var body = response.body();
 
             if (!response.isSuccessful() || body == null) {
@@ -300,7 +338,8 @@ public class DataManagement {
                 negotiationRequest.getRemoteBusinessPartnerNumber(),
                 negotiationRequest.getOffer().getOfferId(),
                 negotiationRequest.getOffer().getAssetId(),
-                negotiationRequest.getOffer().getPolicy().asString());
+                negotiationRequest.getOffer().getPolicy().asString(),
+                asEventCallbacks(negotiationRequest.getCallbackAddresses()));
 
         var requestBody = RequestBody.create(negotiateSpec,MediaType.parse("application/json"));
 
@@ -399,7 +438,8 @@ public class DataManagement {
                 transferRequest.getConnectorAddress(),
                 transferRequest.getContractId(),
                 transferRequest.getCallbackAddresses().get(0).getUri(),
-                transferRequest.getConnectorAddress());
+                transferRequest.getConnectorAddress(),
+                asEventCallbacks(transferRequest.getCallbackAddresses()));
 
         var requestBody = RequestBody.create(transferSpec,MediaType.parse("application/json"));
 
@@ -17,14 +17,13 @@
 package org.eclipse.tractusx.agents.edc.service;
 
 import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
 import jakarta.json.JsonValue;
 import org.apache.jena.atlas.lib.Sink;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFParser;
-import org.apache.jena.riot.lang.StreamRDFCounting;
 import org.apache.jena.riot.system.ErrorHandler;
 import org.apache.jena.riot.system.ErrorHandlerFactory;
-import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.riot.system.StreamRDFLib;
 import org.eclipse.tractusx.agents.edc.AgentConfig;
 import org.eclipse.tractusx.agents.edc.MonitorWrapper;
@@ -33,6 +32,7 @@ import org.eclipse.tractusx.agents.edc.model.DcatCatalog;
 import org.eclipse.tractusx.agents.edc.model.DcatDataset;
 import org.eclipse.tractusx.agents.edc.rdf.RDFStore;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.sparql.core.Quad;
 import org.eclipse.edc.spi.monitor.Monitor;
@@ -40,9 +40,21 @@ import org.eclipse.edc.spi.query.Criterion;
 import org.eclipse.edc.spi.query.QuerySpec;
 
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * A service which keeps a triple store and
@@ -58,6 +70,11 @@ public class DataspaceSynchronizer implements Runnable {
     protected final static QuerySpec federatedAssetQuery = QuerySpec.Builder.newInstance().
             filter(List.of(new Criterion("https://w3id.org/catenax/ontology/common#isFederated","=","true^^xsd:boolean"))).build();
 
+    /**
+     * how often running fetches are checked for their timeout
+     */
+    protected final static long FETCH_CHECK_INTERVAL=100;
+
     protected MonitorWrapper monitorWrapper;
 
     static {
@@ -75,6 +92,24 @@ public class DataspaceSynchronizer implements Runnable {
         assetPropertyMap.put("https://w3id.org/catenax/ontology/common#satisfiesRole",NodeFactory.createURI("https://w3id.org/catenax/ontology/common#satisfiesRole"));
     }
 
+    /**
+     * the offers of a remote connector: the content hashes of all offers
+     * and the quads of those offers which changed since the last round
+     */
+    protected static class ConnectorOffers {
+        protected final String remote;
+        protected final Node connector;
+        protected final Map<Node,String> hashes;
+        protected final Map<Node,Set<Quad>> changed;
+
+        protected ConnectorOffers(String remote, Node connector, Map<Node,String> hashes, Map<Node,Set<Quad>> changed) {
+            this.remote=remote;
+            this.connector=connector;
+            this.hashes=hashes;
+            this.changed=changed;
+        }
+    }
+
     /**
      * service links
      */
@@ -88,6 +123,11 @@ public class DataspaceSynchronizer implements Runnable {
      * internal state
      */
     protected boolean isStarted=false;
+    protected ExecutorService fetcher;
+    // content hashes of the offers applied per remote connector
+    protected final Map<String,Map<Node,String>> offerHashes=new ConcurrentHashMap<>();
+    // parsed shapes graphs by the hash of their turtle source
+    protected final Map<String,List<Triple>> shapesCache;
 
     /**
      * creates the synchronizer
@@ -104,6 +144,13 @@ public class DataspaceSynchronizer implements Runnable {
         this.rdfStore=rdfStore;
         this.monitor=monitor;
         this.monitorWrapper=new MonitorWrapper(getClass().getName(),monitor);
+        int cacheSize=config.getDataspaceShapesCacheSize();
+        this.shapesCache=Collections.synchronizedMap(new LinkedHashMap<>(16,0.75f,true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,List<Triple>> eldest) {
+                return size()>cacheSize;
+            }
+        });
     }
 
     /**
@@ -114,8 +161,12 @@ public class DataspaceSynchronizer implements Runnable {
             isStarted=true;
             long interval=config.getDataspaceSynchronizationInterval();
             String[] connectors=config.getDataspaceSynchronizationConnectors();
+            if(rdfStore.isPersistent()) {
+                purge(interval>0 && connectors!=null ? connectors : new String[0]);
+            }
             if(interval>0 && connectors!=null && connectors.length>0) {
                 monitor.info(String.format("Starting dataspace synchronization on %d connectors with interval %d milliseconds", connectors.length,interval));
+                fetcher=Executors.newFixedThreadPool(config.getDataspaceSynchronizationParallelism());
                 service.schedule(this,interval,TimeUnit.MILLISECONDS);
             }
         }
@@ -129,72 +180,71 @@ public class DataspaceSynchronizer implements Runnable {
             monitor.info("Shutting down dataspace synchronization");
             isStarted=false;
             service.shutdown();
+            if(fetcher!=null) {
+                fetcher.shutdownNow();
+            }
         }
     }
 
     /**
-     * runs the synchronizer when scheduled
+     * runs the synchronizer when scheduled: the catalogues of all remote connectors
+     * are fetched and converted in parallel (bounded by the fetcher pool) without
+     * holding any transaction. Each converted catalogue is applied in its own short
+     * write transaction as soon as it arrives
      */
     @Override
     public void run() {
         monitor.debug("Synchronization run has been started");
         if(isStarted) {
+            long startTime=System.currentTimeMillis();
+            long timeout=config.getDataspaceSynchronizationTimeout();
+            CompletionService<ConnectorOffers> fetches=new ExecutorCompletionService<>(fetcher);
+            Map<Future<ConnectorOffers>,String> pending=new HashMap<>();
+            // the time at which each fetch has actually been started
+            Map<String,Long> fetchStarts=new ConcurrentHashMap<>();
             for (String remote : config.getDataspaceSynchronizationConnectors()) {
-                if(isStarted) {
-                    monitor.debug(String.format("About to synchronize remote connector %s", remote));
-                    rdfStore.startTx();
-                    try {
-                        DcatCatalog catalog = dataManagement.getCatalog(remote,federatedAssetQuery);
-                        Node graph = rdfStore.getDefaultGraph();
-                        Node connector = NodeFactory.createURI(remote.replace("https", "edcs").replace("http", "edc"));
-                        Quad findAssets = Quad.create(graph,connector,CX_ASSET,Node.ANY);
-                        Iterator<Quad> assetQuads= rdfStore.getDataSet().find(findAssets);
-                        int tupleCount=0;
-                        while(assetQuads.hasNext()) {
-                            Quad quadAsset=assetQuads.next();
-                            Quad findAssetProps = Quad.create(graph,quadAsset.getObject(),Node.ANY,Node.ANY);
-                            Iterator<Quad> propQuads=rdfStore.getDataSet().find(findAssetProps);
-                            while(propQuads.hasNext()) {
-                                Quad quadProp=propQuads.next();
-                                if(quadProp.getPredicate().isURI() && quadProp.getPredicate().getURI().equals("http://www.w3.org/ns/shacl#shapesGraph") && quadProp.getObject().isURI()) {
-                                    Quad findSubGraphsProps = Quad.create(quadProp.getObject(), Node.ANY, Node.ANY, Node.ANY);
-                                    Iterator<Quad> subGraphQuads = rdfStore.getDataSet().find(findSubGraphsProps);
-                                    while (subGraphQuads.hasNext()) {
-                                        rdfStore.getDataSet().delete(subGraphQuads.next());
-                                        tupleCount++;
-                                    }
-                                }
-                                rdfStore.getDataSet().delete(quadProp);
-                                tupleCount++;
-                            }
-                            rdfStore.getDataSet().delete(quadAsset);
-                            tupleCount++;
+                pending.put(fetches.submit(() -> {
+                    fetchStarts.put(remote,System.currentTimeMillis());
+                    monitor.debug(String.format("About to fetch the catalogue of remote connector %s", remote));
+                    return convert(remote,dataManagement.getCatalog(remote,federatedAssetQuery,timeout));
+                }),remote);
+            }
+            int synchronizedCount=0;
+            try {
+                while(!pending.isEmpty()) {
+                    if(!isStarted) {
+                        monitor.debug(String.format("Synchronization is no more active. Skipping %d connectors.",pending.size()));
+                        break;
+                    }
+                    Future<ConnectorOffers> fetch=fetches.poll(FETCH_CHECK_INTERVAL,TimeUnit.MILLISECONDS);
+                    if(fetch!=null) {
+                        String remote=pending.remove(fetch);
+                        try {
+                            apply(fetch.get());
+                            synchronizedCount++;
+                        } catch(CancellationException e) {
+                            monitor.warning(String.format("Could not synchronize remote connector %s within %d milliseconds. Going ahead.", remote, timeout));
+                        } catch(ExecutionException e) {
+                            monitor.warning(String.format("Could not synchronize remote connector %s because of %s. Going ahead.", remote, e.getCause()));
+                        } catch(Throwable t) {
+                            monitor.warning(String.format("Could not synchronize remote connector %s because of %s. Going ahead.", remote, t));
                         }
-                        monitor.debug(String.format("About to delete %d old tuples.", tupleCount));
-                        List<DcatDataset> offers=catalog.getDatasets();
-                        tupleCount=0;
-                        if(offers!=null) {
-                            monitor.debug(String.format("Found a catalog with %d entries for remote connector %s", offers.size(), remote));
-                            for (DcatDataset offer : catalog.getDatasets()) {
-                                for(Quad quad : convertToQuads(graph,connector,offer)) {
-                                    tupleCount++;
-                                    rdfStore.getDataSet().add(quad);
-                                }
-                            }
-                        } else {
-                            monitor.warning(String.format("Found an empty catalog for remote connector %s", remote));
+                    }
+                    long now=System.currentTimeMillis();
+                    for(Map.Entry<Future<ConnectorOffers>,String> running : pending.entrySet()) {
+                        Long fetchStart=fetchStarts.get(running.getValue());
+                        if(timeout>0 && fetchStart!=null && fetchStart+timeout<now) {
+                            running.getKey().cancel(true);
                         }
-                        monitor.debug(String.format("About to add %d new tuples.", tupleCount));
-                        rdfStore.commit();
-                    } catch (Throwable io) {
-                        monitor.warning(String.format("Could not synchronize remote connector %s because of %s. Going ahead.", remote, io));
-                        rdfStore.abort();
                     }
-                } else {
-                    monitor.debug(String.format("Synchronization is no more active. Skipping all connectors starting from %s.",remote));
-                    break;
                 }
-            } // for
+            } catch(InterruptedException e) {
+                monitor.warning("Synchronization run has been interrupted.");
+                Thread.currentThread().interrupt();
+            } finally {
+                pending.keySet().forEach(fetch -> fetch.cancel(true));
+            }
+            monitor.debug(String.format("Synchronized %d connectors in %d milliseconds.",synchronizedCount,System.currentTimeMillis()-startTime));
             if(isStarted) {
                 monitor.debug("Schedule next synchronization run");
                 service.schedule(this, config.getDataspaceSynchronizationInterval(), TimeUnit.MILLISECONDS);
@@ -204,6 +254,250 @@ public class DataspaceSynchronizer implements Runnable {
         }
     }
 
+    /**
+     * @param remote url of the remote connector
+     * @return the node representing the connector
+     */
+    protected Node getConnectorNode(String remote) {
+        return NodeFactory.createURI(remote.replace("https", "edcs").replace("http", "edc"));
+    }
+
+    /**
+     * hashes the content of an offer which is represented in the store. The policy
+     * is left out as its id is regenerated for each catalogue request.
+     * @param offer the contract offer
+     * @return hash of the offer
+     */
+    protected static String getHash(DcatDataset offer) {
+        JsonObjectBuilder content=Json.createObjectBuilder();
+        offer.getProperties().forEach((key,value) -> {
+            if(!key.equals("http://www.w3.org/ns/odrl/2/hasPolicy")) {
+                content.add(key,value);
+            }
+        });
+        return getHash(content.build().toString());
+    }
+
+    /**
+     * @param content some text
+     * @return SHA-256 hash of the text
+     */
+    protected static String getHash(String content) {
+        try {
+            MessageDigest digest=MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.",e);
+        }
+    }
+
+    /**
+     * parses a shapes graph or takes it from the cache. Parsing
+     * happens outside of the cache lock such that parallel fetches do not wait for each other.
+     * @param turtle source of the shapes graph
+     * @return the triples of the shapes graph
+     */
+    protected List<Triple> parseShapes(String turtle) {
+        String hash=config.getDataspaceShapesCacheSize()>0 ? getHash(turtle) : null;
+        if(hash!=null) {
+            List<Triple> cached=shapesCache.get(hash);
+            if(cached!=null) {
+                return cached;
+            }
+        }
+        List<Triple> triples=new ArrayList<>();
+        ErrorHandler errorHandler = ErrorHandlerFactory.errorHandlerStd(monitorWrapper);
+        RDFParser.create()
+                .errorHandler(errorHandler)
+                .source(new StringReader(turtle))
+                .lang(Lang.TTL)
+                .parse(StreamRDFLib.sinkTriples(new Sink<>() {
+
+                    @Override
+                    public void close() {
+                    }
+
+                    @Override
+                    public void send(Triple triple) {
+                        triples.add(triple);
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+                }));
+        List<Triple> parsed=Collections.unmodifiableList(triples);
+        if(hash!=null) {
+            shapesCache.put(hash,parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * rebases the triples of a shapes graph onto a target graph. Blank nodes are
+     * renamed per target graph (but stable across rounds) such that shapes shared
+     * by several offers do not share their blank nodes.
+     * @param graph the target graph
+     * @param triples the triples of the shapes graph
+     * @param quads collection to add to
+     */
+    protected static void rebaseShapes(Node graph, List<Triple> triples, Collection<Quad> quads) {
+        Map<Node,Node> blankNodes=new HashMap<>();
+        Function<Node,Node> rebase=node -> node.isBlank() ?
+                blankNodes.computeIfAbsent(node,blank -> NodeFactory.createBlankNode(graph.getURI()+"#"+blank.getBlankNodeLabel())) : node;
+        for(Triple triple : triples) {
+            quads.add(Quad.create(graph,rebase.apply(triple.getSubject()),triple.getPredicate(),rebase.apply(triple.getObject())));
+        }
+    }
+
+    /**
+     * converts the changed offers in the catalogue of a remote connector, needs no transaction
+     * @param remote url of the remote connector
+     * @param catalog the current catalogue of the remote connector
+     * @return the offers of the connector
+     */
+    protected ConnectorOffers convert(String remote, DcatCatalog catalog) {
+        Node graph = rdfStore.getDefaultGraph();
+        Node connector = getConnectorNode(remote);
+        Map<Node,String> previousHashes=offerHashes.getOrDefault(remote,Map.of());
+        Map<Node,String> hashes=new HashMap<>();
+        Map<Node,Set<Quad>> changed=new HashMap<>();
+        List<DcatDataset> offers=catalog.getDatasets();
+        if(offers!=null) {
+            monitor.debug(String.format("Found a catalog with %d entries for remote connector %s", offers.size(), remote));
+            for (DcatDataset offer : offers) {
+                Node asset=NodeFactory.createURI(getProperties(offer).get("@id").toString());
+                String hash=getHash(offer);
+                String previousHash=hashes.put(asset,hash);
+                if(previousHash!=null) {
+                    // several offers for the same asset are only unchanged together
+                    hash=previousHash+hash;
+                    hashes.put(asset,hash);
+                }
+                if(previousHash!=null || changed.containsKey(asset) || !hash.equals(previousHashes.get(asset))) {
+                    changed.computeIfAbsent(asset,key -> new HashSet<>()).addAll(convertToQuads(graph,connector,offer));
+                }
+            }
+        } else {
+            monitor.warning(String.format("Found an empty catalog for remote connector %s", remote));
+        }
+        return new ConnectorOffers(remote,connector,hashes,changed);
+    }
+
+    /**
+     * collects the quads describing an offered asset
+     * @param graph default graph
+     * @param asset the offered asset
+     * @param quads collection to add to
+     */
+    protected void findAssetQuads(Node graph, Node asset, Set<Quad> quads) {
+        Quad findAssetProps = Quad.create(graph,asset,Node.ANY,Node.ANY);
+        Iterator<Quad> propQuads=rdfStore.getDataSet().find(findAssetProps);
+        while(propQuads.hasNext()) {
+            Quad quadProp=propQuads.next();
+            if(quadProp.getPredicate().isURI() && quadProp.getPredicate().getURI().equals("http://www.w3.org/ns/shacl#shapesGraph") && quadProp.getObject().isURI()) {
+                Quad findSubGraphsProps = Quad.create(quadProp.getObject(), Node.ANY, Node.ANY, Node.ANY);
+                rdfStore.getDataSet().find(findSubGraphsProps).forEachRemaining(quads::add);
+            }
+            quads.add(quadProp);
+        }
+    }
+
+    /**
+     * removes the offers of all connectors which are not synchronized anymore.
+     * A persistent store keeps them across restarts, while a memory store
+     * starts without any offers.
+     * @param remotes the remote connectors which are synchronized
+     */
+    protected void purge(String[] remotes) {
+        Set<Node> connectors=new HashSet<>();
+        for(String remote : remotes) {
+            connectors.add(getConnectorNode(remote));
+        }
+        Node graph = rdfStore.getDefaultGraph();
+        rdfStore.startTx();
+        try {
+            Set<Node> purged=new HashSet<>();
+            Set<Quad> oldQuads=new HashSet<>();
+            Quad findAssets = Quad.create(graph,Node.ANY,CX_ASSET,Node.ANY);
+            Iterator<Quad> assetQuads= rdfStore.getDataSet().find(findAssets);
+            while(assetQuads.hasNext()) {
+                Quad quadAsset=assetQuads.next();
+                if(!connectors.contains(quadAsset.getSubject())) {
+                    purged.add(quadAsset.getSubject());
+                    oldQuads.add(quadAsset);
+                    findAssetQuads(graph,quadAsset.getObject(),oldQuads);
+                }
+            }
+            for(Quad quad : oldQuads) {
+                rdfStore.getDataSet().delete(quad);
+            }
+            rdfStore.commit();
+            if(!purged.isEmpty()) {
+                monitor.info(String.format("Purged %d tuples of %d connectors which are not synchronized anymore.", oldQuads.size(), purged.size()));
+            }
+        } catch(Throwable t) {
+            rdfStore.abort();
+            throw t;
+        }
+    }
+
+    /**
+     * updates the offers of a remote connector in the store within a short
+     * write transaction: offers which are gone are removed and only the quads
+     * of changed offers are written, unchanged offers are not touched
+     * @param offers the offers of the remote connector
+     */
+    protected void apply(ConnectorOffers offers) {
+        Node graph = rdfStore.getDefaultGraph();
+        rdfStore.startTx();
+        try {
+            int deleteCount=0;
+            int addCount=0;
+            Set<Quad> oldQuads=new HashSet<>();
+            Quad findAssets = Quad.create(graph,offers.connector,CX_ASSET,Node.ANY);
+            Iterator<Quad> assetQuads= rdfStore.getDataSet().find(findAssets);
+            while(assetQuads.hasNext()) {
+                Quad quadAsset=assetQuads.next();
+                if(!offers.hashes.containsKey(quadAsset.getObject())) {
+                    oldQuads.add(quadAsset);
+                    findAssetQuads(graph,quadAsset.getObject(),oldQuads);
+                }
+            }
+            for(Quad quad : oldQuads) {
+                rdfStore.getDataSet().delete(quad);
+                deleteCount++;
+            }
+            for(Map.Entry<Node,Set<Quad>> offer : offers.changed.entrySet()) {
+                oldQuads.clear();
+                Quad quadAsset=Quad.create(graph,offers.connector,CX_ASSET,offer.getKey());
+                if(rdfStore.getDataSet().contains(quadAsset)) {
+                    oldQuads.add(quadAsset);
+                }
+                findAssetQuads(graph,offer.getKey(),oldQuads);
+                for(Quad quad : oldQuads) {
+                    if(!offer.getValue().contains(quad)) {
+                        rdfStore.getDataSet().delete(quad);
+                        deleteCount++;
+                    }
+                }
+                for(Quad quad : offer.getValue()) {
+                    if(!oldQuads.contains(quad)) {
+                        rdfStore.getDataSet().add(quad);
+                        addCount++;
+                    }
+                }
+            }
+            monitor.debug(String.format("Deleted %d old and added %d new tuples for %d changed of %d offers of remote connector %s.",
+                    deleteCount, addCount, offers.changed.size(), offers.hashes.size(), offers.remote));
+            rdfStore.commit();
+        } catch(Throwable t) {
+            rdfStore.abort();
+            throw t;
+        }
+        offerHashes.put(offers.remote,offers.hashes);
+    }
+
     /**
      * Workaround the castration of the IDS catalogue
      * @param offer being made
@@ -287,31 +581,9 @@ public class DataspaceSynchronizer implements Runnable {
                             case "http://www.w3.org/ns/shacl#shapesGraph":
                                 Node newGraph = NodeFactory.createURI("https://w3id.org/catenax/ontology/common#GraphShape?id=" + offerId.hashCode());
                                 quads.add(Quad.create(graph, assetNode, node, newGraph));
-                                Sink<Quad> quadSink = new Sink<>() {
-
-                                    @Override
-                                    public void close() {
-                                    }
-
-                                    @Override
-                                    public void send(Quad quad) {
-                                        quads.add(quad);
-                                    }
-
-                                    @Override
-                                    public void flush() {
-                                    }
-                                };
-                                StreamRDF dest = StreamRDFLib.sinkQuads(quadSink);
-                                StreamRDF graphDest = StreamRDFLib.extendTriplesToQuads(newGraph, dest);
-                                StreamRDFCounting countingDest = StreamRDFLib.count(graphDest);
-                                ErrorHandler errorHandler = ErrorHandlerFactory.errorHandlerStd(monitorWrapper);
-                                RDFParser.create()
-                                        .errorHandler(errorHandler)
-                                        .source(new StringReader(pureProperty))
-                                        .lang(Lang.TTL)
-                                        .parse(countingDest);
-                                monitor.debug(String.format("Added shapes subgraph %s with %d triples", newGraph, countingDest.countTriples()));
+                                List<Triple> shapes = parseShapes(pureProperty);
+                                rebaseShapes(newGraph, shapes, quads);
+                                monitor.debug(String.format("Added shapes subgraph %s with %d triples", newGraph, shapes.size()));
                                 break;
                             default:
                                 quads.add(Quad.create(graph, assetNode, node, NodeFactory.createLiteral(pureProperty)));
@@ -0,0 +1,205 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.edc.spi.EdcException;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.edc.spi.types.TypeManager;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.IAgreementCluster;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * A coordination of replicas through a directory which all replicas mount.
+ * Claims are files which are checked and written under a file lock and expire with their modification time,
+ * awaited transfers are marker files next to which the delivered endpoint is written.
+ * If the directory cannot be accessed, claims fail, such that no replica provisions
+ * an asset which another replica may be provisioning.
+ */
+public class FileAgreementCluster implements IAgreementCluster {
+
+    protected static final Object[] PROCESS_LOCKS = new Object[64];
+
+    static {
+        for (int stripe = 0; stripe < PROCESS_LOCKS.length; stripe++) {
+            PROCESS_LOCKS[stripe] = new Object();
+        }
+    }
+
+    protected final Path claimDirectory;
+    protected final Path transferDirectory;
+    protected final ObjectMapper objectMapper;
+    protected final Monitor monitor;
+
+    /**
+     * create the cluster
+     * @param directory shared directory, will be created if not existant
+     * @param typeManager serialization of endpoints
+     * @param monitor logger
+     */
+    public FileAgreementCluster(Path directory, TypeManager typeManager, Monitor monitor) {
+        this.claimDirectory = directory.resolve("claims");
+        this.transferDirectory = directory.resolve("transfers");
+        this.objectMapper = typeManager.getMapper();
+        this.monitor = monitor;
+        try {
+            Files.createDirectories(claimDirectory);
+            Files.createDirectories(transferDirectory);
+        } catch (IOException e) {
+            throw new EdcException(String.format("Agreement cluster directory %s cannot be used.", directory), e);
+        }
+    }
+
+    /**
+     * @param key asset name or transfer id
+     * @return a file name which is safe for any key
+     */
+    protected static String getFileName(String key) {
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * an action on a claim file which runs under the lock of the claim
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    protected interface ClaimAction<T> {
+        T run(Path file) throws IOException;
+    }
+
+    /**
+     * runs an action under the lock of a claim, such that the check
+     * and the update of the claim file happen atomically across replicas.
+     * File locks are held per process, so replicas in the same process
+     * are serialized by a (striped) monitor in addition.
+     * Lock files are never removed, deleting them would break the exclusion.
+     * @param asset name of the asset
+     * @param action to run on the claim file
+     * @param <T> result type
+     * @return result of the action
+     * @throws IOException if the claim cannot be locked or accessed
+     */
+    protected <T> T locked(String asset, ClaimAction<T> action) throws IOException {
+        String fileName = getFileName(asset);
+        Object processLock = PROCESS_LOCKS[Math.floorMod(fileName.hashCode(), PROCESS_LOCKS.length)];
+        synchronized (processLock) {
+            try (FileChannel channel = FileChannel.open(claimDirectory.resolve(fileName + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.run(claimDirectory.resolve(fileName + ".claim"));
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean claim(String asset, String replica, long leaseTime) {
+        try {
+            return locked(asset, file -> {
+                if (Files.exists(file)) {
+                    if (!replica.equals(Files.readString(file, StandardCharsets.UTF_8))
+                            && Files.getLastModifiedTime(file).toMillis() + leaseTime >= System.currentTimeMillis()) {
+                        return false;
+                    }
+                    monitor.debug(String.format("Claim on asset %s has been renewed or has expired. Taking it.", asset));
+                }
+                Files.writeString(file, replica, StandardCharsets.UTF_8);
+                return true;
+            });
+        } catch (IOException e) {
+            monitor.warning(String.format("Claim on asset %s could not be checked. Not provisioning.", asset), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void release(String asset, String replica) {
+        try {
+            locked(asset, file -> {
+                if (Files.exists(file) && replica.equals(Files.readString(file, StandardCharsets.UTF_8))) {
+                    Files.delete(file);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            monitor.warning(String.format("Claim on asset %s could not be released.", asset), e);
+        }
+    }
+
+    @Override
+    public void expect(String transferId) {
+        try {
+            Files.writeString(transferDirectory.resolve(getFileName(transferId) + ".expected"), transferId, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            monitor.warning(String.format("Transfer %s could not be announced to other replicas.", transferId), e);
+        }
+    }
+
+    @Override
+    public boolean deliver(EndpointDataReference reference) {
+        String fileName = getFileName(reference.getId());
+        if (!Files.exists(transferDirectory.resolve(fileName + ".expected"))) {
+            return false;
+        }
+        try {
+            Path tmpFile = Files.createTempFile(transferDirectory, "endpoint", ".tmp");
+            Files.writeString(tmpFile, objectMapper.writeValueAsString(reference), StandardCharsets.UTF_8);
+            Files.move(tmpFile, transferDirectory.resolve(fileName + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            monitor.warning(String.format("Endpoint for transfer %s could not be handed over to other replicas.", reference.getId()), e);
+            return false;
+        }
+    }
+
+    @Override
+    public EndpointDataReference collect(String transferId) {
+        Path file = transferDirectory.resolve(getFileName(transferId) + ".json");
+        try {
+            return objectMapper.readValue(Files.readString(file, StandardCharsets.UTF_8), EndpointDataReference.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            monitor.warning(String.format("Endpoint for transfer %s could not be read.", transferId), e);
+            return null;
+        }
+    }
+
+    @Override
+    public void forget(String transferId) {
+        String fileName = getFileName(transferId);
+        try {
+            Files.deleteIfExists(transferDirectory.resolve(fileName + ".expected"));
+            Files.deleteIfExists(transferDirectory.resolve(fileName + ".json"));
+        } catch (IOException e) {
+            monitor.warning(String.format("Transfer %s could not be cleaned up.", transferId), e);
+        }
+    }
+}
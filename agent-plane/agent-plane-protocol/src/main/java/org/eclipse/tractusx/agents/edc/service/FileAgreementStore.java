@@ -0,0 +1,307 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import org.eclipse.edc.spi.EdcException;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.edc.spi.types.TypeManager;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.AgreementRecord;
+import org.eclipse.tractusx.agents.edc.jsonld.JsonLd;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A store for agreements which keeps one json file per asset
+ * in a directory (in addition to the memory), so that agreements and
+ * endpoints survive a restart of the agent. Lookups pick up the changes
+ * of other agents which share the directory.
+ * Endpoints carry bearer tokens, so they are only written encrypted
+ * (AES-GCM under a configured key) and only as long as their token is valid.
+ * Without a key, only the agreements are kept and endpoints are transferred anew.
+ */
+public class FileAgreementStore extends InMemoryAgreementStore {
+
+    protected static final String CIPHER = "AES/GCM/NoPadding";
+    protected static final int IV_LENGTH = 12;
+    protected static final int TAG_LENGTH = 128;
+
+    protected final Path directory;
+    protected final ObjectMapper objectMapper;
+    protected final Monitor monitor;
+    // key to encrypt endpoints, null if endpoints are not written
+    protected final SecretKey key;
+    protected final SecureRandom random = new SecureRandom();
+    // modification times of the files from which the records stem
+    protected final ConcurrentMap<String, FileTime> versions = new ConcurrentHashMap<>();
+
+    /**
+     * create the store (which does not write endpoints) and load the records found in the directory
+     * @param directory where the records are kept, will be created if not existant
+     * @param typeManager serialization of endpoints
+     * @param monitor logger
+     */
+    public FileAgreementStore(Path directory, TypeManager typeManager, Monitor monitor) {
+        this(directory, typeManager, monitor, null);
+    }
+
+    /**
+     * create the store and load the records found in the directory
+     * @param directory where the records are kept, will be created if not existant
+     * @param typeManager serialization of endpoints
+     * @param monitor logger
+     * @param key base64 encoded AES key to encrypt endpoints, null if endpoints should not be written
+     */
+    public FileAgreementStore(Path directory, TypeManager typeManager, Monitor monitor, String key) {
+        this.directory = directory;
+        this.objectMapper = typeManager.getMapper();
+        this.monitor = monitor;
+        if (key != null) {
+            try {
+                byte[] keyBytes = Base64.getDecoder().decode(key);
+                if (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32) {
+                    throw new IllegalArgumentException(String.format("Key has %d bytes instead of 16, 24 or 32.", keyBytes.length));
+                }
+                this.key = new SecretKeySpec(keyBytes, "AES");
+            } catch (IllegalArgumentException e) {
+                throw new EdcException("Agreement store key is not a base64 encoded AES key.", e);
+            }
+        } else {
+            this.key = null;
+            monitor.info(String.format("No agreement store key given. Endpoints are not kept in store directory %s.", directory));
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new EdcException(String.format("Agreement store directory %s cannot be used.", directory), e);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                try {
+                    FileTime modified = Files.getLastModifiedTime(file);
+                    JsonObject json = readJson(file);
+                    AgreementRecord record = fromJson(json);
+                    records.put(record.getAsset(), record);
+                    versions.put(record.getAsset(), modified);
+                    if (json.containsKey("endpoint") && record.getEndpoint() == null) {
+                        // purge expired, undecryptable or unencrypted endpoints
+                        write(record);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    monitor.warning(String.format("Agreement store file %s could not be read. Ignoring.", file), e);
+                }
+            }
+        } catch (IOException e) {
+            throw new EdcException(String.format("Agreement store directory %s cannot be listed.", directory), e);
+        }
+        monitor.info(String.format("Loaded %d agreements from store directory %s.", records.size(), directory));
+    }
+
+    /**
+     * @param asset name of the asset
+     * @return the file which keeps the record of the asset
+     */
+    protected Path getFile(String asset) {
+        return directory.resolve(UUID.nameUUIDFromBytes(asset.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    /**
+     * @param file the file which keeps a record
+     * @return the record
+     */
+    protected AgreementRecord read(Path file) throws IOException {
+        return fromJson(readJson(file));
+    }
+
+    /**
+     * @param file the file which keeps a record
+     * @return the json representation of the record
+     */
+    protected JsonObject readJson(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return Json.createReader(reader).readObject();
+        }
+    }
+
+    @Override
+    public synchronized AgreementRecord get(String asset) {
+        Path file = getFile(asset);
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (!modified.equals(versions.get(asset))) {
+                records.put(asset, read(file));
+                versions.put(asset, modified);
+            }
+        } catch (NoSuchFileException e) {
+            records.remove(asset);
+            versions.remove(asset);
+        } catch (IOException | RuntimeException e) {
+            monitor.warning(String.format("Agreement store file %s could not be read. Using the last known record.", file), e);
+        }
+        return super.get(asset);
+    }
+
+    @Override
+    public synchronized void put(AgreementRecord record) {
+        super.put(record);
+        write(record);
+    }
+
+    /**
+     * writes the record to its file
+     * @param record agreement record
+     */
+    protected void write(AgreementRecord record) {
+        Path file = getFile(record.getAsset());
+        try {
+            Path tmpFile = Files.createTempFile(directory, "agreement", ".tmp");
+            Files.writeString(tmpFile, toJson(record).toString(), StandardCharsets.UTF_8);
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            versions.put(record.getAsset(), Files.getLastModifiedTime(file));
+        } catch (IOException e) {
+            monitor.warning(String.format("Agreement for asset %s could not be written to %s.", record.getAsset(), file), e);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(String asset, AgreementRecord record) {
+        if (!super.remove(asset, record)) {
+            return false;
+        }
+        try {
+            Files.deleteIfExists(getFile(asset));
+            versions.remove(asset);
+        } catch (IOException e) {
+            monitor.warning(String.format("Agreement for asset %s could not be deleted.", asset), e);
+        }
+        return true;
+    }
+
+    /**
+     * @param record agreement record
+     * @return json representation of the record
+     */
+    protected JsonObject toJson(AgreementRecord record) throws IOException {
+        JsonObjectBuilder agreement = Json.createObjectBuilder();
+        record.getAgreement().getProperties().forEach(agreement::add);
+        JsonObjectBuilder assetProperties = Json.createObjectBuilder();
+        if (record.getAssetProperties() != null) {
+            record.getAssetProperties().forEach(assetProperties::add);
+        }
+        JsonObjectBuilder json = Json.createObjectBuilder()
+                .add("asset", record.getAsset())
+                .add("remoteUrl", record.getRemoteUrl())
+                .add("agreement", agreement)
+                .add("assetProperties", assetProperties);
+        if (key != null && record.getEndpoint() != null && isValid(record.getEndpoint())) {
+            String endpoint = objectMapper.writeValueAsString(record.getEndpoint());
+            json.add("endpoint", encrypt(record.getAsset(), endpoint));
+        }
+        return json.build();
+    }
+
+    /**
+     * @param endpoint endpoint reference
+     * @return whether the token of the endpoint has not yet expired
+     */
+    protected boolean isValid(EndpointDataReference endpoint) {
+        return AgreementRecord.getExpiry(endpoint) > System.currentTimeMillis();
+    }
+
+    /**
+     * @param asset the asset which the endpoint belongs to (authenticated, but not encrypted)
+     * @param endpoint serialized endpoint
+     * @return base64 encoded iv and cipher text
+     */
+    protected String encrypt(String asset, String endpoint) throws IOException {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(asset.getBytes(StandardCharsets.UTF_8));
+            byte[] encrypted = cipher.doFinal(endpoint.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(String.format("Endpoint of asset %s could not be encrypted.", asset), e);
+        }
+    }
+
+    /**
+     * @param asset the asset which the endpoint belongs to
+     * @param encrypted base64 encoded iv and cipher text
+     * @return serialized endpoint
+     */
+    protected String decrypt(String asset, String encrypted) throws GeneralSecurityException {
+        byte[] bytes = Base64.getDecoder().decode(encrypted);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, bytes, 0, IV_LENGTH));
+        cipher.updateAAD(asset.getBytes(StandardCharsets.UTF_8));
+        return new String(cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param json json representation of the record
+     * @return agreement record
+     */
+    protected AgreementRecord fromJson(JsonObject json) throws IOException {
+        String asset = json.getString("asset");
+        EndpointDataReference endpoint = null;
+        JsonValue endpointJson = json.get("endpoint");
+        // unencrypted endpoints (of former versions) are ignored
+        if (key != null && endpointJson != null && endpointJson.getValueType() == JsonValue.ValueType.STRING) {
+            try {
+                endpoint = objectMapper.readValue(decrypt(asset, ((JsonString) endpointJson).getString()), EndpointDataReference.class);
+                if (!isValid(endpoint)) {
+                    endpoint = null;
+                }
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                monitor.warning(String.format("Endpoint of asset %s could not be decrypted. Ignoring.", asset));
+            }
+        }
+        return new AgreementRecord(asset,
+                json.getString("remoteUrl"),
+                JsonLd.processContractAgreement(json.getJsonObject("agreement")),
+                json.getJsonObject("assetProperties"),
+                endpoint);
+    }
+}
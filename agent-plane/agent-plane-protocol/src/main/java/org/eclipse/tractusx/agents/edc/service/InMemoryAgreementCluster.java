@@ -0,0 +1,76 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.IAgreementCluster;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-process coordination of replicas, e.g., several agreement
+ * controllers in a single runtime
+ */
+public class InMemoryAgreementCluster implements IAgreementCluster {
+
+    // asset to claiming replica and expiry of the claim
+    final protected ConcurrentMap<String, Map.Entry<String, Long>> claims = new ConcurrentHashMap<>();
+    // awaited transfers to the delivered endpoint, if any
+    final protected ConcurrentMap<String, Optional<EndpointDataReference>> transfers = new ConcurrentHashMap<>();
+
+    /**
+     * create the cluster
+     */
+    public InMemoryAgreementCluster() {
+    }
+
+    @Override
+    public boolean claim(String asset, String replica, long leaseTime) {
+        long now = System.currentTimeMillis();
+        Map.Entry<String, Long> claim = claims.compute(asset, (key, current) ->
+                current == null || current.getValue() < now || current.getKey().equals(replica) ? Map.entry(replica, now + leaseTime) : current);
+        return claim.getKey().equals(replica);
+    }
+
+    @Override
+    public void release(String asset, String replica) {
+        claims.computeIfPresent(asset, (key, current) -> current.getKey().equals(replica) ? null : current);
+    }
+
+    @Override
+    public void expect(String transferId) {
+        transfers.putIfAbsent(transferId, Optional.empty());
+    }
+
+    @Override
+    public boolean deliver(EndpointDataReference reference) {
+        return transfers.replace(reference.getId(), Optional.of(reference)) != null;
+    }
+
+    @Override
+    public EndpointDataReference collect(String transferId) {
+        return transfers.getOrDefault(transferId, Optional.empty()).orElse(null);
+    }
+
+    @Override
+    public void forget(String transferId) {
+        transfers.remove(transferId);
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import org.eclipse.tractusx.agents.edc.AgreementRecord;
+import org.eclipse.tractusx.agents.edc.IAgreementStore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory store for agreements
+ */
+public class InMemoryAgreementStore implements IAgreementStore {
+
+    final protected ConcurrentMap<String, AgreementRecord> records = new ConcurrentHashMap<>();
+
+    /**
+     * create the store
+     */
+    public InMemoryAgreementStore() {
+    }
+
+    @Override
+    public AgreementRecord get(String asset) {
+        return records.get(asset);
+    }
+
+    @Override
+    public void put(AgreementRecord record) {
+        records.put(record.getAsset(), record);
+    }
+
+    @Override
+    public boolean remove(String asset, AgreementRecord record) {
+        return records.remove(asset, record);
+    }
+
+    @Override
+    public Collection<AgreementRecord> getAll() {
+        return List.copyOf(records.values());
+    }
+}
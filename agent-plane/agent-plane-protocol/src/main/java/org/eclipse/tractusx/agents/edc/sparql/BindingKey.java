@@ -0,0 +1,70 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.Node;
+
+import java.util.Arrays;
+
+/**
+ * Structural key over the nodes which a binding has for a fixed list of variables.
+ * Used to deduplicate the input bindings of a service call without rendering them to strings.
+ * Unbound variables are represented by null.
+ */
+public class BindingKey {
+
+    protected final Node[] nodes;
+    protected final int hash;
+
+    /**
+     * creates a new key
+     * @param nodes the nodes in the order of the variables, will not be copied
+     */
+    public BindingKey(Node[] nodes) {
+        this.nodes = nodes;
+        this.hash = Arrays.hashCode(nodes);
+    }
+
+    /**
+     * @return the nodes in the order of the variables
+     */
+    public Node[] getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BindingKey)) {
+            return false;
+        }
+        BindingKey otherKey = (BindingKey) other;
+        return hash == otherKey.hash && Arrays.equals(nodes, otherKey.nodes);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(nodes);
+    }
+}
@@ -21,20 +21,18 @@ import org.eclipse.tractusx.agents.edc.AgentConfig;
 import org.eclipse.tractusx.agents.edc.IAgreementController;
 import org.eclipse.tractusx.agents.edc.http.HttpClientAdapter;
 import okhttp3.OkHttpClient;
+import org.apache.jena.atlas.iterator.Iter;
 import org.apache.jena.atlas.logging.Log;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
-import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecException;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.riot.ResultSetMgr;
 import org.apache.jena.riot.WebContent;
 import org.apache.jena.riot.resultset.ResultSetLang;
 import org.apache.jena.sparql.algebra.Op;
-import org.apache.jena.sparql.algebra.OpAsQuery;
 import org.apache.jena.sparql.algebra.Transformer;
 import org.apache.jena.sparql.algebra.op.*;
-import org.apache.jena.sparql.algebra.table.TableData;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
@@ -47,7 +45,6 @@ import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
 import org.apache.jena.sparql.exec.RowSet;
 import org.apache.jena.sparql.exec.RowSetAdapter;
 import org.apache.jena.sparql.exec.http.*;
-import org.apache.jena.sparql.graph.NodeTransformLib;
 import org.apache.jena.sparql.resultset.ResultSetMem;
 import org.apache.jena.sparql.service.bulk.ChainingServiceExecutorBulk;
 import org.apache.jena.sparql.service.bulk.ServiceExecutorBulk;
@@ -67,6 +64,8 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -92,6 +91,12 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
     final HttpClient client;
     final ExecutorService executor;
     final ObjectMapper objectMapper;
+    final ServiceBatchController batchController;
+
+    /**
+     * prepared remote queries per operator and bound variables (least recently used are dropped)
+     */
+    final Map<Map.Entry<Op,Set<String>>,PreparedServiceQuery> preparedQueries;
 
     /**
      * some constants
@@ -117,11 +122,47 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
         this.client=new HttpClientAdapter(client);
         this.executor=executor;
         this.objectMapper=typeManager.getMapper();
+        this.batchController=new ServiceBatchController(config,monitor);
+        int cacheSize=config.getFederationServiceQueryCacheSize();
+        this.preparedQueries=Collections.synchronizedMap(new LinkedHashMap<>(16,0.75f,true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map.Entry<Op,Set<String>>,PreparedServiceQuery> eldest) {
+                return size()>cacheSize;
+            }
+        });
+    }
+
+    /**
+     * @param subOp the operator to be executed remotely
+     * @param boundVars names of all bound variables
+     * @return the (cached) prepared query
+     */
+    protected PreparedServiceQuery prepareQuery(Op subOp, Set<String> boundVars) {
+        if(config.getFederationServiceQueryCacheSize()<=0) {
+            return new PreparedServiceQuery(subOp,boundVars);
+        }
+        return preparedQueries.computeIfAbsent(new AbstractMap.SimpleImmutableEntry<>(subOp,Set.copyOf(boundVars)),
+                key -> new PreparedServiceQuery(key.getKey(),key.getValue()));
+    }
+
+    /**
+     * @return the controller deciding about batch sizes per target
+     */
+    public ServiceBatchController getBatchController() {
+        return batchController;
+    }
+
+    /**
+     * @param target service url (connector and asset)
+     * @return the batch size currently picked for the target
+     */
+    public long getBatchSize(String target) {
+        return batchController.getBatchSize(target);
     }
 
     /**
      * bulk execution call - this is the default
-     * TODO implement batch size per service and not globally
+     * a batch is closed as soon as the global maximum or the batch size of one of its targets is reached
      * @param opService bound operator
      * @param queryIterator incoming bindings (may set service uri and input params)
      * @param executionContext context
@@ -133,6 +174,7 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
         Node serviceNode=opService.getService();
         Set<String> boundVars=new HashSet<>();
         long batchSize=config.getFederationServiceBatchSize();
+        int prefetchDepth=config.getFederationServicePrefetch();
 
         //
         // returns an iterator over batches
@@ -142,6 +184,9 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
             // the active iterator over the current batch
             private QueryIterator batchIterator;
 
+            // the batches which have already been submitted ahead of the current one
+            private final Deque<QueryIterator> prefetchedBatches=new ArrayDeque<>();
+
             /**
              * check whether we still have something left in the current iterator
              * or switch to the next batch
@@ -152,47 +197,62 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
             }
 
             /**
-             * switch to the next batch
+             * switch to the next batch and keep the configured number
+             * of batches in flight behind it
              * @return whether next batch exists
              */
             public boolean hasNextResultBinding() {
                 // do we have additional input bindings
-                if(this.getInput().hasNext()) {
-                    // yes then read the next batch
-                    Map<String,List<Binding>> bindings=new HashMap<>();
-                    long batchLength=0;
-                    while(this.getInput().hasNext() && batchLength++<batchSize) {
-                        Binding binding = this.getInput().next();
-                        Iterator<Var> vars=binding.vars();
-                        while(vars.hasNext()) {
-                            boundVars.add(vars.next().getVarName());
-                        }
-                        // detect the service uri under the current binding
-                        Node keyNode = serviceNode;
-                        if (keyNode.isVariable())
-                            keyNode = binding.get((Var) keyNode);
-                        if (keyNode.isURI()) {
-                            String key = keyNode.getURI();
-                            if (!bindings.containsKey(key)) {
-                                bindings.put(key, new ArrayList<>());
-                            }
-                            bindings.get(key).add(binding);
-                        } else {
-                            monitor.warning("Omitting a call because of lacking service binding");
-                        }
-                    }
-                    ExecutionContext ctx=this.getExecContext();
-
-                    List<Future<QueryIterator>> futureBindings=bindings.entrySet().stream().map(serviceSpec -> executor.submit(() ->
-                            createExecution(opService, serviceSpec.getKey(), boundVars, serviceSpec.getValue(), ctx))).collect(Collectors.toList());
-
-                    batchIterator=new QueryIterFutures(config,monitor,config.getControlPlaneManagementUrl(),config.getDefaultAsset(),serviceNode, ctx.getContext(),futureBindings);
+                while(prefetchedBatches.size()<=prefetchDepth && this.getInput().hasNext()) {
+                    // yes then read and submit the next batch
+                    prefetchedBatches.add(submitNextBatch());
+                }
+                if(!prefetchedBatches.isEmpty()) {
+                    batchIterator=prefetchedBatches.poll();
                     return hasNextBinding();
                 } else {
                     return false;
                 }
             }
 
+            /**
+             * reads the next batch from the input and submits the calls to its targets
+             * @return iterator over the (future) results of the batch
+             */
+            protected QueryIterator submitNextBatch() {
+                Map<String,List<Binding>> bindings=new HashMap<>();
+                long batchLength=0;
+                boolean batchFull=false;
+                while(!batchFull && this.getInput().hasNext() && batchLength++<batchSize) {
+                    Binding binding = this.getInput().next();
+                    Iterator<Var> vars=binding.vars();
+                    while(vars.hasNext()) {
+                        boundVars.add(vars.next().getVarName());
+                    }
+                    // detect the service uri under the current binding
+                    Node keyNode = serviceNode;
+                    if (keyNode.isVariable())
+                        keyNode = binding.get((Var) keyNode);
+                    if (keyNode.isURI()) {
+                        String key = keyNode.getURI();
+                        List<Binding> targetBindings = bindings.computeIfAbsent(key, k -> new ArrayList<>());
+                        targetBindings.add(binding);
+                        batchFull = targetBindings.size() >= batchController.getBatchSize(key);
+                    } else {
+                        monitor.warning("Omitting a call because of lacking service binding");
+                    }
+                }
+                ExecutionContext ctx=this.getExecContext();
+                // the calls may still run while the next batch is read
+                Set<String> batchVars=new HashSet<>(boundVars);
+
+                CompletionService<QueryIterator> completion=new ExecutorCompletionService<>(executor);
+                List<Future<QueryIterator>> futureBindings=bindings.entrySet().stream().map(serviceSpec -> completion.submit(() ->
+                        createTrackedExecution(opService, serviceSpec.getKey(), batchVars, serviceSpec.getValue(), ctx))).collect(Collectors.toList());
+
+                return new QueryIterFutures(config,monitor,config.getControlPlaneManagementUrl(),config.getDefaultAsset(),serviceNode, ctx.getContext(),completion,futureBindings);
+            }
+
             /**
              * the hasNextBinding call has already been done, so we simply call next
              * on the current iterator - it should be there, otherwise it behaves as an orinary
@@ -204,23 +264,50 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
             }
 
             /**
-             * no explicit sub canceling implemented, http is stateless in this respect
+             * cancels the prefetched batches
              */
             @Override
             protected void requestSubCancel() {
-
+                prefetchedBatches.forEach(QueryIterator::cancel);
             }
 
             /**
-             * no explicit closing implemented, http is stateless in this respect
+             * closes the current and the prefetched batches
              */
             @Override
             protected void closeSubIterator() {
+                prefetchedBatches.forEach(QueryIterator::close);
+                prefetchedBatches.clear();
+                if(batchIterator!=null) {
+                    batchIterator.close();
+                    batchIterator=null;
+                }
             }
 
         };
     }
 
+    /**
+     * executes a batch against a single target and reports the observed
+     * latency, result volume or failure to the batch controller
+     * @param opOriginal the unbound operator
+     * @param serviceURL uri of the target service
+     * @param boundVars a set of all bound variables
+     * @param bindings   the bindings of the batch
+     * @param execCxt    the execution context
+     * @return a set of query results
+     */
+    protected QueryIterator createTrackedExecution(OpService opOriginal, String serviceURL, Set<String> boundVars, List<Binding> bindings, ExecutionContext execCxt) {
+        long startTime=System.currentTimeMillis();
+        try {
+            QueryIterator result=createExecution(opOriginal, serviceURL, boundVars, bindings, execCxt);
+            return batchController.track(serviceURL, bindings.size(), System.currentTimeMillis()-startTime, result, execCxt);
+        } catch(RuntimeException e) {
+            batchController.recordFailure(serviceURL, bindings.size(), System.currentTimeMillis()-startTime);
+            throw e;
+        }
+    }
+
     /**
      * single execution mode - this is not used anymore - batch mode is default
      * @param opExecute  the bound operator (if variable is used in service description)
@@ -352,59 +439,36 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
         if(!assetType.contains("Skill")) {
             // http execute with headers and such
             try {
-                Op opRemote = opOriginal.getSubOp();
-                int hashCode = Math.abs(opRemote.hashCode());
-                String bindingVarName = "binding" + hashCode;
-                Var idVar = Var.alloc(bindingVarName);
-                VariableDetector vd = new VariableDetector(boundVars);
-                opRemote = NodeTransformLib.transform(vd, opRemote);
-                List<Var> neededVars = vd.getVariables();
-                Map<String, Binding> resultingBindings = new HashMap<>();
-                Map<Node, List<Binding>> newBindings = new HashMap<>();
+                PreparedServiceQuery preparedQuery = prepareQuery(opOriginal.getSubOp(), boundVars);
+                Var idVar = preparedQuery.getIdVar();
+                List<Var> neededVars = preparedQuery.getNeededVars();
+                // deduplicate the bindings structurally, ids are dense indexes into the join index
+                Map<BindingKey, Integer> keyIds = new HashMap<>();
+                List<Binding> resultingBindings = new ArrayList<>();
+                List<List<Binding>> newBindings = new ArrayList<>();
                 for (Binding originalBinding : bindings) {
-                    StringBuilder keyBuilder = new StringBuilder();
-                    BindingBuilder bb = BindingBuilder.create();
-                    for (Var neededVar : neededVars) {
-                        Node node = originalBinding.get(neededVar);
-                        keyBuilder.append(neededVar.getVarName());
-                        keyBuilder.append("#");
-                        keyBuilder.append(node.toString());
-                        bb.add(neededVar, node);
+                    Node[] keyNodes = new Node[neededVars.size()];
+                    for (int varIndex = 0; varIndex < keyNodes.length; varIndex++) {
+                        keyNodes[varIndex] = originalBinding.get(neededVars.get(varIndex));
                     }
-                    String key = keyBuilder.toString();
-                    Node keyNode;
-                    if (resultingBindings.containsKey(key)) {
-                        Binding existingBinding = resultingBindings.get(key);
-                        keyNode = existingBinding.get(idVar);
-                    } else {
-                        keyNode = NodeFactory.createLiteral(String.valueOf(resultingBindings.size()));
-                        bb.add(idVar, keyNode);
-                        newBindings.put(keyNode, new ArrayList<>());
-                        Binding newBinding = bb.build();
-                        //bb = BindingBuilder.create(newBinding);
-                        resultingBindings.put(key, newBinding);
+                    BindingKey key = new BindingKey(keyNodes);
+                    Integer id = keyIds.get(key);
+                    if (id == null) {
+                        id = resultingBindings.size();
+                        keyIds.put(key, id);
+                        BindingBuilder bb = BindingBuilder.create();
+                        for (int varIndex = 0; varIndex < keyNodes.length; varIndex++) {
+                            bb.add(neededVars.get(varIndex), keyNodes[varIndex]);
+                        }
+                        bb.add(idVar, NodeFactory.createLiteral(String.valueOf(id)));
+                        resultingBindings.add(bb.build());
+                        newBindings.add(new ArrayList<>());
                     }
                     final BindingBuilder bb2 = BindingBuilder.create(originalBinding);
-                    bb2.set(idVar, keyNode);
-                    newBindings.get(keyNode).add(bb2.build());
-                }
-                neededVars.add(idVar);
-                TableData table = new TableData(neededVars, new ArrayList<>(resultingBindings.values()));
-                OpTable opTable = OpTable.create(table);
-
-                Query query;
-
-                // do we have a "sub-select", then we smuggle our binding into it
-                if(opRemote instanceof OpProject) {
-                    OpProject opRemoteProject=(OpProject) opRemote;
-                    Op join = OpSequence.create(opTable,opRemoteProject.getSubOp());
-                    List<Var> resultVars=opRemoteProject.getVars();
-                    resultVars.add(idVar);
-                    query=OpAsQuery.asQuery(new OpProject(join,resultVars));
-                } else {
-                    Op join = OpSequence.create(opTable, opRemote);
-                    query = OpAsQuery.asQuery(join);
+                    bb2.set(idVar, resultingBindings.get(id).get(idVar));
+                    newBindings.get(id).add(bb2.build());
                 }
+                String query = preparedQuery.render(resultingBindings);
 
                 monitor.debug(String.format("Prepared target %s for query %s", serviceURL, query));
 
@@ -423,7 +487,7 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
                 QueryExecutorBuilder qExecBuilder = QueryExecutor.newBuilder()
                         .endpoint(serviceURL)
                         .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
-                        .query(query)
+                        .queryString(query)
                         .params(serviceParams)
                         .context(context)
                         .httpClient(httpClient)
@@ -438,6 +502,24 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
                     qExecBuilder = qExecBuilder.httpHeader(authKeyProp, authCodeProp);
                 }
 
+                if (config.isFederationServiceStreaming()) {
+                    // Join while parsing the network stream, the connection
+                    // is retained until the resulting iterator is closed
+                    QueryExecutor qExec = qExecBuilder.build();
+                    try {
+                        RowSet rowSet = qExec.select();
+                        QueryIterator qIter = QueryIterPlainWrapper.create(Iter.onClose(rowSet, () -> {
+                            rowSet.close();
+                            qExec.close();
+                        }));
+                        qIter = QueryIter.makeTracked(qIter, execCxt);
+                        return new QueryIterJoin(qIter, newBindings, idVar, execCxt);
+                    } catch (RuntimeException ex) {
+                        qExec.close();
+                        throw ex;
+                    }
+                }
+
                 try (QueryExecutor qExec = qExecBuilder.build()) {
                     // Detach from the network stream.
                     RowSet rowSet = qExec.select().materialize();
@@ -476,41 +558,40 @@ public class DataspaceServiceExecutor implements ServiceExecutor, ChainingServic
                 vars.add(bindingVarName);
                 neededVars.forEach((key1, value) -> vars.add(key1));
                 parameterSet.setVarNames(vars);
-                Map<String, Binding> resultingBindings = new HashMap<>();
-                Map<Node, List<Binding>> newBindings = new HashMap<>();
+                List<Var> parameterVars=new ArrayList<>();
+                neededVars.forEach((key1, value) -> parameterVars.add(Var.alloc(key1)));
+                Map<BindingKey, Integer> keyIds = new HashMap<>();
+                List<Binding> resultingBindings = new ArrayList<>();
+                List<List<Binding>> newBindings = new ArrayList<>();
                 for(Binding originalBinding : bindings) {
-                    StringBuilder keyBuilder = new StringBuilder();
-                    BindingBuilder bb=BindingBuilder.create();
-                    for(Map.Entry<String,Node> neededVar : neededVars.entrySet()) {
-                        Node node=neededVar.getValue();
+                    Node[] keyNodes=new Node[parameterVars.size()];
+                    int varIndex=0;
+                    for(Node node : neededVars.values()) {
                         if(node.isVariable()) {
                             node=originalBinding.get((Var) node);
                         }
-                        if(node!=null) {
-                            keyBuilder.append(neededVar.getKey());
-                            keyBuilder.append("#");
-                            keyBuilder.append(node);
-                            bb.add(Var.alloc(neededVar.getKey()), node);
-                        }
+                        keyNodes[varIndex++]=node;
                     }
-                    String key=keyBuilder.toString();
-                    Node keyNode;
-                    if(resultingBindings.containsKey(key)) {
-                        Binding existingBinding=resultingBindings.get(key);
-                        keyNode=existingBinding.get(idVar);
-                    } else {
-                        keyNode=NodeFactory.createLiteral(String.valueOf(resultingBindings.size()));
-                        bb.add(idVar,keyNode);
-                        newBindings.put(keyNode,new ArrayList<>());
-                        Binding newBinding=bb.build();
-                        //bb=BindingBuilder.create(newBinding);
-                        resultingBindings.put(key,newBinding);
+                    BindingKey key=new BindingKey(keyNodes);
+                    Integer id=keyIds.get(key);
+                    if(id==null) {
+                        id=resultingBindings.size();
+                        keyIds.put(key,id);
+                        BindingBuilder bb=BindingBuilder.create();
+                        for(varIndex=0; varIndex<keyNodes.length; varIndex++) {
+                            if(keyNodes[varIndex]!=null) {
+                                bb.add(parameterVars.get(varIndex), keyNodes[varIndex]);
+                            }
+                        }
+                        bb.add(idVar,NodeFactory.createLiteral(String.valueOf(id)));
+                        resultingBindings.add(bb.build());
+                        newBindings.add(new ArrayList<>());
                     }
                     final BindingBuilder bb2=BindingBuilder.create(originalBinding);
-                    bb2.set(idVar,keyNode);
-                    newBindings.get(keyNode).add(bb2.build());
+                    bb2.set(idVar,resultingBindings.get(id).get(idVar));
+                    newBindings.get(id).add(bb2.build());
                 }
-                parameterSet.getRows().addAll(resultingBindings.values());
+                parameterSet.getRows().addAll(resultingBindings);
                 parameterSet.reset();
                 long timeoutMillis = config.getReadTimeout();
                 HttpClient httpClient = chooseHttpClient(serviceURL, context);
@@ -0,0 +1,92 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBase;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/**
+ * Lazy (non-copying) view on the join of a left binding (the parent)
+ * with a remote result binding. Only the given variables are
+ * taken from the remote side, all others are answered by the parent.
+ */
+public class JoinBinding extends BindingBase {
+
+    protected final Binding right;
+    protected final Var[] rightVars;
+
+    /**
+     * creates a new view
+     * @param left the original binding
+     * @param right the remote binding
+     * @param rightVars the variables bound in right but not in left
+     */
+    public JoinBinding(Binding left, Binding right, Var[] rightVars) {
+        super(left);
+        this.right = right;
+        this.rightVars = rightVars;
+    }
+
+    @Override
+    protected Iterator<Var> vars1() {
+        return Iter.iter(Arrays.asList(rightVars).iterator());
+    }
+
+    @Override
+    protected void forEach1(BiConsumer<Var, Node> action) {
+        for (Var var : rightVars) {
+            action.accept(var, right.get(var));
+        }
+    }
+
+    @Override
+    protected int size1() {
+        return rightVars.length;
+    }
+
+    @Override
+    protected boolean isEmpty1() {
+        return rightVars.length == 0;
+    }
+
+    @Override
+    protected boolean contains1(Var var) {
+        for (Var rightVar : rightVars) {
+            if (rightVar.equals(var)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected Node get1(Var var) {
+        for (Var rightVar : rightVars) {
+            if (rightVar.equals(var)) {
+                return right.get(var);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpAsQuery;
+import org.apache.jena.sparql.algebra.op.OpProject;
+import org.apache.jena.sparql.algebra.op.OpSequence;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.algebra.table.TableData;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBuilder;
+import org.apache.jena.sparql.graph.NodeTransformLib;
+import org.apache.jena.sparql.serializer.SerializationContext;
+import org.apache.jena.sparql.util.FmtUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A remote SERVICE query which has been analysed and serialized once
+ * for a given operator and set of bound variables. Per batch, only the
+ * VALUES table carrying the input bindings needs to be rendered into the template.
+ * If the placeholder row cannot be located unambiguously in the serialization
+ * (e.g., because the operator mentions the placeholder itself), each batch is serialized in full.
+ */
+public class PreparedServiceQuery {
+
+    /**
+     * placeholder which is rendered in place of the binding table
+     */
+    protected static final Node MARKER = NodeFactory.createURI("urn:cx:agent:values:placeholder");
+
+    protected final List<Var> neededVars;
+    protected final List<Var> tableVars;
+    protected final Var idVar;
+    protected final Op opRemote;
+    protected final String prefix;
+    protected final String suffix;
+    protected final boolean parenthesized;
+
+    /**
+     * analyses and serializes the operator
+     * @param subOp the operator to be executed remotely
+     * @param boundVars names of all bound variables
+     */
+    public PreparedServiceQuery(Op subOp, Set<String> boundVars) {
+        int hashCode = Math.abs(subOp.hashCode());
+        idVar = Var.alloc("binding" + hashCode);
+        VariableDetector vd = new VariableDetector(boundVars);
+        opRemote = NodeTransformLib.transform(vd, subOp);
+        neededVars = vd.getVariables();
+        tableVars = new ArrayList<>(neededVars);
+        tableVars.add(idVar);
+        BindingBuilder bb = BindingBuilder.create();
+        tableVars.forEach(var -> bb.add(var, MARKER));
+        String query = serialize(List.of(bb.build()));
+
+        // cut out the placeholder row, but only if it is the sole and contiguous occurrence of the marker
+        String marker = FmtUtils.stringForNode(MARKER);
+        int start = query.indexOf(marker);
+        int end = query.lastIndexOf(marker) + marker.length();
+        if (start < 0 || countMarkers(query, marker) != tableVars.size() || !query.substring(start, end).replace(marker, "").isBlank()) {
+            prefix = null;
+            suffix = null;
+            parenthesized = false;
+            return;
+        }
+        int before = start - 1;
+        while (before >= 0 && Character.isWhitespace(query.charAt(before))) {
+            before--;
+        }
+        int after = end;
+        while (after < query.length() && Character.isWhitespace(query.charAt(after))) {
+            after++;
+        }
+        parenthesized = before >= 0 && query.charAt(before) == '(' && after < query.length() && query.charAt(after) == ')';
+        if (parenthesized) {
+            start = before;
+            end = after + 1;
+        }
+        prefix = query.substring(0, start);
+        suffix = query.substring(end);
+    }
+
+    /**
+     * @param query serialized query
+     * @param marker serialized marker
+     * @return number of occurrences of the marker in the query
+     */
+    protected static int countMarkers(String query, String marker) {
+        int count = 0;
+        for (int index = query.indexOf(marker); index >= 0; index = query.indexOf(marker, index + marker.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * serializes the full remote query
+     * @param bindings the rows of the binding table
+     * @return the query string
+     */
+    protected String serialize(List<Binding> bindings) {
+        OpTable opTable = OpTable.create(new TableData(tableVars, bindings));
+        // do we have a "sub-select", then we smuggle our binding into it
+        if (opRemote instanceof OpProject) {
+            OpProject opRemoteProject = (OpProject) opRemote;
+            Op join = OpSequence.create(opTable, opRemoteProject.getSubOp());
+            List<Var> resultVars = new ArrayList<>(opRemoteProject.getVars());
+            resultVars.add(idVar);
+            return OpAsQuery.asQuery(new OpProject(join, resultVars)).toString();
+        }
+        Op join = OpSequence.create(opTable, opRemote);
+        return OpAsQuery.asQuery(join).toString();
+    }
+
+    /**
+     * @return whether batches are rendered into the template (rather than fully serialized)
+     */
+    public boolean isTemplated() {
+        return prefix != null;
+    }
+
+    /**
+     * @return the input variables which the remote side needs (without the id variable)
+     */
+    public List<Var> getNeededVars() {
+        return neededVars;
+    }
+
+    /**
+     * @return the hidden variable carrying the binding id
+     */
+    public Var getIdVar() {
+        return idVar;
+    }
+
+    /**
+     * @param bindings the rows of the binding table (bound to the needed variables and the id variable)
+     * @return the query string for the given rows
+     */
+    public String render(List<Binding> bindings) {
+        if (!isTemplated()) {
+            return serialize(bindings);
+        }
+        StringBuilder query = new StringBuilder(prefix.length() + suffix.length() + bindings.size() * 32 * (neededVars.size() + 1));
+        query.append(prefix);
+        SerializationContext context = new SerializationContext();
+        boolean first = true;
+        for (Binding binding : bindings) {
+            if (!first) {
+                query.append('\n');
+            }
+            first = false;
+            if (parenthesized) {
+                query.append('(');
+            }
+            for (int varIndex = 0; varIndex <= neededVars.size(); varIndex++) {
+                Var var = varIndex < neededVars.size() ? neededVars.get(varIndex) : idVar;
+                Node node = binding.get(var);
+                if (varIndex > 0) {
+                    query.append(' ');
+                }
+                query.append(node == null ? "UNDEF" : FmtUtils.stringForNode(node, context));
+            }
+            if (parenthesized) {
+                query.append(')');
+            }
+        }
+        query.append(suffix);
+        return query.toString();
+    }
+}
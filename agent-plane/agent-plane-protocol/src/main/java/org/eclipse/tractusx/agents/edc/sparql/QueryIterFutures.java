@@ -28,17 +28,19 @@ import org.apache.jena.sparql.util.Context;
 import org.eclipse.edc.spi.monitor.Monitor;
 
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
  * A query iterator sitting on a set of future query iterators
+ * which are consumed in the order of their completion.
  * It will get and produce contextual information in order to collect any
  * errors appearing.
  */
 public class QueryIterFutures extends QueryIteratorBase {
 
+    final CompletionService<QueryIterator> completion;
     final List<Future<QueryIterator>> futures;
     QueryIterator current;
     Binding lastBinding;
@@ -58,9 +60,12 @@ public class QueryIterFutures extends QueryIteratorBase {
      * @param targetNode a node (var, the name/uri of the remote tenant
      * @param sourceAsset the name of the calling/consuming graph
      * @param executionContext description of the execution context
-     * @param futures list of futures to synchronize on
+     * @param completion the completion service which queues the futures when they are done
+     * @param futures list of futures (submitted to the completion service) to synchronize on
      */
-    public QueryIterFutures(AgentConfig config, Monitor monitor, String sourceTenant, String sourceAsset, Node targetNode, Context executionContext, List<Future<QueryIterator>> futures) {
+    public QueryIterFutures(AgentConfig config, Monitor monitor, String sourceTenant, String sourceAsset, Node targetNode, Context executionContext,
+                            CompletionService<QueryIterator> completion, List<Future<QueryIterator>> futures) {
+        this.completion=completion;
         this.futures=futures;
         this.monitor=monitor;
         this.config=config;
@@ -100,19 +105,21 @@ public class QueryIterFutures extends QueryIteratorBase {
     }
 
     /**
-     * move to the next ready-made future (or sync/poll for the next ready-made one in a recursion)
+     * move to the next completed future (blocks until the next one completes)
      * @return whether any service has/will produce any binding
      */
     boolean hasNextInternalBinding() {
+        if(current!=null) {
+            // the exhausted batch may still hold on to its remote connection
+            current.close();
+            current=null;
+        }
         if(!futures.isEmpty()) {
-            Optional<Future<QueryIterator>> boundFuture=futures.stream().filter(Future::isDone).findFirst();
             try {
-                if(boundFuture.isPresent()) {
-                    Future<QueryIterator> currentFuture=boundFuture.get();
-                    futures.remove(currentFuture);
+                Future<QueryIterator> currentFuture=completion.take();
+                // cancelled futures are queued, too
+                if(futures.remove(currentFuture)) {
                     current = currentFuture.get();
-                } else {
-                    Thread.sleep(config.getNegotiationPollInterval());
                 }
             }  catch(InterruptedException e) {
                 List<CatenaxWarning> warnings=CatenaxWarning.getOrSetWarnings(executionContext);
@@ -158,10 +165,29 @@ public class QueryIterFutures extends QueryIteratorBase {
     }
     @Override
     protected void requestCancel() {
-        futures.forEach( future -> future.cancel(true));
+        futures.forEach( future -> {
+            if(!future.cancel(true)) {
+                closeFuture(future);
+            }
+        });
         futures.clear();
     }
 
+    /**
+     * closes the iterator of an already completed future
+     * (which may still retain a remote connection)
+     * @param future a completed future
+     */
+    protected void closeFuture(Future<QueryIterator> future) {
+        if(future.isDone() && !future.isCancelled()) {
+            try {
+                future.get().close();
+            } catch(InterruptedException | ExecutionException | RuntimeException e) {
+                monitor.debug(String.format("Could not close the result of a remote batch because of %s",e.getMessage()));
+            }
+        }
+    }
+
     @Override
     public void output(IndentedWriter indentedWriter, SerializationContext serializationContext) {
     }
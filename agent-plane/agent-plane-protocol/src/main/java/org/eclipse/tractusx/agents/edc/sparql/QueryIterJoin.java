@@ -23,27 +23,73 @@ import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.ExecutionContext;
 import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.engine.binding.BindingBuilder;
 import org.apache.jena.sparql.engine.iterator.QueryIter1;
 import org.apache.jena.sparql.serializer.SerializationContext;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /**
  * Query join iterator
  * Prepares the given bindings with a hidden variable which is then projected
+ * The hidden variable carries the (dense) index of the original bindings in the join index
+ * The variables to take over from a remote binding (the merge plan) are computed once per
+ * remote binding (and reused while the remote bindings have the same shape), the joined
+ * bindings are lazy views over the original and the remote binding.
  */
 public class QueryIterJoin extends QueryIter1 {
-    protected final Map<Node,List<Binding>> joinBindings;
+    protected final List<List<Binding>> joinBindings;
     protected final Var idVar;
-    protected Iterator<Binding> leftBindings;
 
-    public QueryIterJoin(QueryIterator input, Map<Node,List<Binding>> joinBindings, Var idVar, ExecutionContext execCxt) {
+    // variables bound by all original bindings, null if they differ in shape
+    protected final Set<Var> leftVars;
+
+    // the current remote binding, its merge plan and the original bindings to merge it with
+    protected Binding rightBinding;
+    protected Var[] rightVars;
+    protected List<Binding> leftBindings;
+    protected int leftIndex;
+
+    // buffer for computing the merge plan
+    protected final List<Var> planBuffer=new ArrayList<>();
+
+    public QueryIterJoin(QueryIterator input, List<List<Binding>> joinBindings, Var idVar, ExecutionContext execCxt) {
         super(input, execCxt);
         this.joinBindings=joinBindings;
         this.idVar=idVar;
+        this.leftVars=computeLeftVars(joinBindings);
+    }
+
+    /**
+     * @param joinBindings the original bindings
+     * @return the variables which all original bindings bind, null if they are not uniform
+     */
+    protected static Set<Var> computeLeftVars(List<List<Binding>> joinBindings) {
+        Set<Var> vars=null;
+        for(List<Binding> bindings : joinBindings) {
+            for(Binding binding : bindings) {
+                if(vars==null) {
+                    vars=new HashSet<>();
+                    Iterator<Var> bindingVars=binding.vars();
+                    while(bindingVars.hasNext()) {
+                        vars.add(bindingVars.next());
+                    }
+                } else if(binding.size()!=vars.size()) {
+                    return null;
+                } else {
+                    Iterator<Var> bindingVars=binding.vars();
+                    while(bindingVars.hasNext()) {
+                        if(!vars.contains(bindingVars.next())) {
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+        return vars;
     }
 
     @Override
@@ -56,37 +102,85 @@ public class QueryIterJoin extends QueryIter1 {
 
     @Override
     public boolean hasNextBinding() {
-        return (leftBindings!=null && leftBindings.hasNext()) || hasNextInputBinding();
+        return (leftBindings!=null && leftIndex<leftBindings.size()) || hasNextInputBinding();
     }
 
     protected boolean hasNextInputBinding() {
-        if(this.getInput().hasNext()) {
+        while(this.getInput().hasNext()) {
             Binding nextBinding = this.getInput().next();
-            Node idNode = nextBinding.get(idVar);
-            List<Binding> resultBindings=joinBindings.get(idNode);
-            if(resultBindings!=null) {
-                leftBindings=resultBindings.stream().map( resultBinding -> {
-                    BindingBuilder bb=BindingBuilder.create(resultBinding);
-                    nextBinding.forEach( (v,n) -> {
-                        if(!resultBinding.contains(v)) {
-                            bb.set(v,n);
-                        }
-                    });
-                    return bb.build();
-                }).iterator();
-            } else {
-                leftBindings = null;
+            List<Binding> resultBindings=getJoinBindings(nextBinding.get(idVar));
+            if(resultBindings!=null && !resultBindings.isEmpty()) {
+                rightBinding=nextBinding;
+                leftBindings=resultBindings;
+                leftIndex=0;
+                if(leftVars!=null) {
+                    rightVars=computePlan(leftVars,null,nextBinding,rightVars);
+                }
+                return true;
+            }
+        }
+        leftBindings=null;
+        rightBinding=null;
+        return false;
+    }
+
+    /**
+     * computes the variables to take over from the remote side
+     * @param leftSet variables of the original side, if uniform
+     * @param left the original binding, if not uniform
+     * @param right remote binding
+     * @param previous the previous plan which is reused if it is identical
+     * @return merge plan
+     */
+    protected Var[] computePlan(Set<Var> leftSet, Binding left, Binding right, Var[] previous) {
+        planBuffer.clear();
+        Iterator<Var> vars=right.vars();
+        while(vars.hasNext()) {
+            Var var=vars.next();
+            if(leftSet!=null ? !leftSet.contains(var) : !left.contains(var)) {
+                planBuffer.add(var);
+            }
+        }
+        if(previous!=null && previous.length==planBuffer.size()) {
+            boolean same=true;
+            for(int index=0; same && index<previous.length; index++) {
+                same=previous[index].equals(planBuffer.get(index));
+            }
+            if(same) {
+                return previous;
             }
-            return hasNextBinding();
-        } else {
-            return false;
         }
+        return planBuffer.toArray(new Var[0]);
+    }
+
+    /**
+     * @param idNode the id returned by the remote side
+     * @return the original bindings carrying the id, null if there are none
+     */
+    protected List<Binding> getJoinBindings(Node idNode) {
+        if(idNode==null || !idNode.isLiteral()) {
+            return null;
+        }
+        int id;
+        try {
+            id=Integer.parseInt(idNode.getLiteralLexicalForm());
+        } catch(NumberFormatException e) {
+            return null;
+        }
+        if(id<0 || id>=joinBindings.size()) {
+            return null;
+        }
+        return joinBindings.get(id);
     }
 
     @Override
     public Binding moveToNextBinding() {
-        if(leftBindings!=null && leftBindings.hasNext()) {
-            return leftBindings.next();
+        if(leftBindings!=null && leftIndex<leftBindings.size()) {
+            Binding leftBinding=leftBindings.get(leftIndex++);
+            if(leftVars==null) {
+                rightVars=computePlan(null,leftBinding,rightBinding,rightVars);
+            }
+            return new JoinBinding(leftBinding,rightBinding,rightVars);
         } else {
             return null;
         }
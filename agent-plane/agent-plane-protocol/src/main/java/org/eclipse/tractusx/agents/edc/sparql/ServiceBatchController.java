@@ -0,0 +1,205 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterProcessBinding;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.tractusx.agents.edc.AgentConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides about the batch sizes of remote service calls.
+ * Each target (connector and asset) has its own maximal batch size
+ * and, if switched on, an adaptive batch size that follows the
+ * latency and the result volume which the target has shown so far.
+ */
+public class ServiceBatchController {
+
+    /**
+     * weight of a new observation in the running averages
+     */
+    protected static final double SMOOTHING = 0.3;
+
+    /**
+     * EDC services
+     */
+    protected final AgentConfig config;
+    protected final Monitor monitor;
+
+    /**
+     * per-target state
+     */
+    protected final Map<String, TargetStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * creates a new controller
+     * @param config agent config
+     * @param monitor logging subsystem
+     */
+    public ServiceBatchController(AgentConfig config, Monitor monitor) {
+        this.config = config;
+        this.monitor = monitor;
+    }
+
+    /**
+     * @param target service url (connector and asset)
+     * @return the batch size that is currently picked for the target
+     */
+    public long getBatchSize(String target) {
+        if (!config.isFederationServiceBatchAdaptive()) {
+            return config.getFederationServiceBatchSize(target);
+        }
+        return getStatistics(target).getBatchSize();
+    }
+
+    /**
+     * record a successful call
+     * @param target service url
+     * @param bindings number of input bindings sent
+     * @param results number of result bindings received
+     * @param millis latency of the call
+     */
+    public void recordSuccess(String target, long bindings, long results, long millis) {
+        if (config.isFederationServiceBatchAdaptive()) {
+            long batchSize = getStatistics(target).recordSuccess(bindings, results, millis);
+            monitor.debug(String.format("Target %s answered %d bindings with %d results in %d ms. Next batch size is %d.", target, bindings, results, millis, batchSize));
+        }
+    }
+
+    /**
+     * record a failed call
+     * @param target service url
+     * @param bindings number of input bindings sent
+     * @param millis time until the failure
+     */
+    public void recordFailure(String target, long bindings, long millis) {
+        if (config.isFederationServiceBatchAdaptive()) {
+            long batchSize = getStatistics(target).recordFailure();
+            monitor.debug(String.format("Target %s failed on %d bindings after %d ms. Next batch size is %d.", target, bindings, millis, batchSize));
+        }
+    }
+
+    /**
+     * wraps the result of a call such that the result volume is recorded
+     * once the result has been consumed
+     * @param target service url
+     * @param bindings number of input bindings sent
+     * @param millis latency of the call
+     * @param result the resulting iterator
+     * @param execCxt execution context
+     * @return tracking iterator
+     */
+    public QueryIterator track(String target, long bindings, long millis, QueryIterator result, ExecutionContext execCxt) {
+        if (!config.isFederationServiceBatchAdaptive()) {
+            return result;
+        }
+        return new QueryIterProcessBinding(result, execCxt) {
+
+            long results = 0;
+            boolean recorded = false;
+
+            @Override
+            public Binding accept(Binding binding) {
+                results++;
+                return binding;
+            }
+
+            @Override
+            protected void closeSubIterator() {
+                if (!recorded) {
+                    recorded = true;
+                    recordSuccess(target, bindings, results, millis);
+                }
+                super.closeSubIterator();
+            }
+        };
+    }
+
+    /**
+     * @param target service url
+     * @return the (new) state of the target
+     */
+    protected TargetStatistics getStatistics(String target) {
+        return statistics.computeIfAbsent(target, key -> new TargetStatistics(config.getFederationServiceBatchSize(key)));
+    }
+
+    /**
+     * running averages and current batch size of a single target
+     */
+    protected class TargetStatistics {
+
+        protected final long maxBatchSize;
+        protected long batchSize;
+        protected double millisPerBinding = -1;
+        protected double resultsPerBinding = -1;
+
+        protected TargetStatistics(long maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            this.batchSize = clamp(config.getFederationServiceBatchInitial());
+        }
+
+        protected synchronized long getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * adapt to a successful call: the batch size moves to the number of bindings
+         * that would meet the targeted latency and result volume, but grows at most by factor two
+         */
+        protected synchronized long recordSuccess(long bindings, long results, long millis) {
+            if (bindings <= 0) {
+                return batchSize;
+            }
+            millisPerBinding = average(millisPerBinding, (double) millis / bindings);
+            resultsPerBinding = average(resultsPerBinding, (double) results / bindings);
+            double desired = Double.MAX_VALUE;
+            if (millisPerBinding > 0) {
+                desired = config.getFederationServiceBatchLatency() / millisPerBinding;
+            }
+            if (resultsPerBinding > 0) {
+                desired = Math.min(desired, config.getFederationServiceBatchResults() / resultsPerBinding);
+            }
+            desired = Math.min(desired, 2.0 * batchSize);
+            batchSize = clamp((long) desired);
+            return batchSize;
+        }
+
+        /**
+         * adapt to a failed call (timeouts and such): half the batch size
+         */
+        protected synchronized long recordFailure() {
+            batchSize = clamp(batchSize / 2);
+            return batchSize;
+        }
+
+        protected double average(double current, double observation) {
+            if (current < 0) {
+                return observation;
+            }
+            return (1 - SMOOTHING) * current + SMOOTHING * observation;
+        }
+
+        protected long clamp(long size) {
+            return Math.max(Math.min(Math.max(size, config.getFederationServiceBatchMin()), maxBatchSize), 1);
+        }
+    }
+}
@@ -0,0 +1,606 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.ws.rs.InternalServerErrorException;
+import jakarta.ws.rs.WebApplicationException;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
+import org.eclipse.edc.spi.types.TypeManager;
+import org.eclipse.edc.spi.types.domain.callback.CallbackAddress;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.model.ContractAgreement;
+import org.eclipse.tractusx.agents.edc.model.DcatCatalog;
+import org.eclipse.tractusx.agents.edc.model.TransferProcess;
+import org.eclipse.tractusx.agents.edc.service.DataManagement;
+import org.eclipse.tractusx.agents.edc.service.FileAgreementStore;
+import org.eclipse.tractusx.agents.edc.service.InMemoryAgreementStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests (and benchmarks) the agreement controller state handling
+ */
+public class TestAgreementController {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    TestConfig config = new TestConfig();
+    AgentConfig agentConfig = new AgentConfig(monitor, config);
+    AgreementController agreementController = new AgreementController(monitor, agentConfig, null);
+    AgentConfig refreshConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(AgentConfig.NEGOTIATION_REFRESH_PROPERTY, "120000")));
+    ExecutorService threadedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    @AfterEach
+    public void tearDown() {
+        threadedExecutor.shutdownNow();
+    }
+
+    /**
+     * @param secondsValid how long the token should be valid
+     * @return an (unsigned) token with the given expiry
+     */
+    public static String createToken(long secondsValid) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(String.format("{\"exp\":%d}", System.currentTimeMillis() / 1000 + secondsValid).getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + "." + encoder.encodeToString("signature".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param id of the agreement
+     * @return an agreement for the given asset
+     */
+    public static ContractAgreement createContractAgreement(String id) {
+        return new ContractAgreement(Json.createObjectBuilder()
+                .add("@id", "agreement-" + id)
+                .add("https://w3id.org/edc/v0.0.1/ns/assetId", id)
+                .build());
+    }
+
+    /**
+     * simulates a provisioned asset
+     * @param asset name of the asset
+     * @param secondsValid how long the endpoint is valid
+     */
+    protected void provision(String asset, long secondsValid) {
+        provision(agreementController, asset, secondsValid);
+    }
+
+    /**
+     * simulates a provisioned asset
+     * @param controller the agreement controller
+     * @param asset name of the asset
+     * @param secondsValid how long the endpoint is valid
+     * @return state of the asset
+     */
+    protected AgreementController.AssetState provision(AgreementController controller, String asset, long secondsValid) {
+        AgreementController.AssetState state = controller.activate(asset);
+        String transferId = "transfer-" + asset;
+        ContractAgreement agreement = createContractAgreement(asset);
+        state.remoteUrl = "http://localhost:8282";
+        state.agreement = agreement;
+        controller.agreementStore.put(new AgreementRecord(asset, state.remoteUrl, agreement, Map.of(), null));
+        controller.registerProcess(asset, new TransferProcess(Json.createObjectBuilder()
+                .add("@id", transferId)
+                .add("https://w3id.org/edc/v0.0.1/ns/state", "COMPLETED")
+                .build()));
+        controller.receiveEdcCallback(EndpointDataReference.Builder.newInstance()
+                .id(transferId)
+                .endpoint("http://localhost:8080/" + asset)
+                .authKey("Authorization")
+                .authCode(createToken(secondsValid))
+                .build());
+        state.provisioning = false;
+        return state;
+    }
+
+    @Test
+    public void testValidEndpoint() {
+        provision("asset", 3600);
+        EndpointDataReference reference = agreementController.get("asset");
+        assertNotNull(reference, "Got the endpoint.");
+        assertEquals("http://localhost:8080/asset", reference.getEndpoint(), "Got the right endpoint.");
+        assertNull(agreementController.get("other"), "Inactive asset has no endpoint.");
+    }
+
+    @Test
+    public void testExpiredEndpoint() {
+        provision("asset", 10);
+        assertNull(agreementController.get("asset"), "Endpoint about to expire is not returned.");
+        assertFalse(agreementController.assetStore.containsKey("asset"), "Expired asset is not active anymore.");
+        agreementController.activate("asset");
+    }
+
+    @Test
+    public void testProvisioning() {
+        agreementController.activate("asset");
+        assertNull(agreementController.get("asset"), "Asset in provisioning has no endpoint.");
+        assertTrue(agreementController.assetStore.containsKey("asset"), "Asset in provisioning stays active.");
+        assertNull(agreementController.activate("asset"), "Asset cannot be activated twice.");
+    }
+
+    @Test
+    public void testCallbackIndex() {
+        AgreementController.AssetState state = agreementController.activate("asset");
+        agreementController.registerTransfer(state, "transfer-asset");
+        agreementController.receiveEdcCallback(EndpointDataReference.Builder.newInstance()
+                .id("transfer-other")
+                .endpoint("http://localhost:8080/other")
+                .build());
+        assertNull(state.getEndpoint(), "Callback for unknown transfer is ignored.");
+        agreementController.receiveEdcCallback(EndpointDataReference.Builder.newInstance()
+                .id("transfer-asset")
+                .endpoint("http://localhost:8080/asset")
+                .build());
+        assertNotNull(state.getEndpoint(), "Callback arriving before the transfer has been polled is resolved.");
+        agreementController.deactivate("asset");
+        assertTrue(agreementController.processIndex.isEmpty(), "Index is cleaned up on deactivation.");
+    }
+
+    /**
+     * an agreement controller which simulates slow negotiations
+     */
+    class SlowAgreementController extends AgreementController {
+        final AtomicInteger negotiations = new AtomicInteger();
+        final boolean fail;
+
+        SlowAgreementController(boolean fail) {
+            super(TestAgreementController.this.monitor, agentConfig, null);
+            this.fail = fail;
+        }
+
+        @Override
+        protected EndpointDataReference provision(String remoteUrl, String asset, AssetState state) throws WebApplicationException {
+            negotiations.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (fail) {
+                deactivate(asset);
+                throw new InternalServerErrorException("Negotiation failed.");
+            }
+            setEndpoint(state, EndpointDataReference.Builder.newInstance()
+                    .endpoint("http://localhost:8080/" + asset)
+                    .authKey("Authorization")
+                    .authCode(createToken(3600))
+                    .build());
+            state.provisioning = false;
+            return get(asset);
+        }
+    }
+
+    /**
+     * an agreement controller which simulates transfers and negotiations
+     */
+    class RefreshingAgreementController extends AgreementController {
+        final AtomicInteger transfers = new AtomicInteger();
+        final AtomicInteger negotiations = new AtomicInteger();
+        volatile boolean agreementExpired;
+        volatile boolean connectorDown;
+        volatile boolean clientBroken;
+
+        RefreshingAgreementController() {
+            this(new InMemoryAgreementStore());
+        }
+
+        RefreshingAgreementController(IAgreementStore store) {
+            super(TestAgreementController.this.monitor, refreshConfig, null, store);
+        }
+
+        @Override
+        protected ContractAgreement negotiate(String remoteUrl, String asset, AssetState state) throws WebApplicationException {
+            negotiations.incrementAndGet();
+            if (connectorDown) {
+                throw new InternalServerErrorException("Connector not reachable.");
+            }
+            if (clientBroken) {
+                throw new IllegalStateException("Management client failed.");
+            }
+            agreementExpired = false;
+            ContractAgreement agreement = createContractAgreement(asset + "-" + negotiations.get());
+            registerAgreement(asset, agreement);
+            agreementStore.put(new AgreementRecord(asset, remoteUrl, agreement, Map.of(), null));
+            return agreement;
+        }
+
+        @Override
+        protected EndpointDataReference transfer(String remoteUrl, String asset, AssetState state, ContractAgreement agreement, EndpointDataReference previous) throws WebApplicationException {
+            if (agreementExpired) {
+                throw new InternalServerErrorException("Agreement has expired.");
+            }
+            String transferId = "transfer-" + asset + "-" + transfers.incrementAndGet();
+            registerTransfer(state, transferId);
+            receiveEdcCallback(EndpointDataReference.Builder.newInstance()
+                    .id(transferId)
+                    .endpoint("http://localhost:8080/" + asset)
+                    .authKey("Authorization")
+                    .authCode(createToken(3600))
+                    .build());
+            return state.getEndpoint();
+        }
+    }
+
+    @Test
+    public void testRefresh() {
+        RefreshingAgreementController refreshingController = new RefreshingAgreementController();
+        AgreementController.AssetState hot = provision(refreshingController, "hot", 60);
+        AgreementController.AssetState cold = provision(refreshingController, "cold", 60);
+        AgreementController.AssetState fresh = provision(refreshingController, "fresh", 3600);
+        EndpointDataReference previous = refreshingController.get("hot");
+        assertNotNull(previous, "Endpoint about to be refreshed is still valid.");
+        refreshingController.get("fresh");
+        refreshingController.refreshEndpoints(Runnable::run);
+        assertEquals(1, refreshingController.transfers.get(), "Only the asset in use with an expiring token has been refreshed.");
+        assertEquals(0, refreshingController.negotiations.get(), "The existing agreement has been reused.");
+        assertNotSame(previous, hot.getEndpoint(), "Hot asset got a new endpoint.");
+        assertEquals("transfer-hot-1", hot.getEndpoint().getId(), "New endpoint belongs to the new transfer.");
+        assertEquals("transfer-cold", cold.getEndpoint().getId(), "Cold asset kept its endpoint.");
+        assertEquals("transfer-fresh", fresh.getEndpoint().getId(), "Fresh asset kept its endpoint.");
+        assertFalse(hot.refreshing.get(), "Refresh has finished.");
+        assertFalse(hot.used, "Refreshed endpoint has not been used yet.");
+        assertSame(hot.getEndpoint(), refreshingController.get("hot"), "Refreshed endpoint is handed out.");
+        assertTrue(refreshingController.processIndex.containsKey("transfer-hot-1"), "New transfer is indexed.");
+        assertFalse(refreshingController.processIndex.containsKey("transfer-hot"), "Old transfer is not indexed anymore.");
+    }
+
+    @Test
+    public void testRefreshRenegotiates() {
+        RefreshingAgreementController refreshingController = new RefreshingAgreementController();
+        AgreementController.AssetState state = provision(refreshingController, "asset", 60);
+        refreshingController.get("asset");
+        refreshingController.agreementExpired = true;
+        refreshingController.refreshEndpoints(Runnable::run);
+        assertEquals(1, refreshingController.negotiations.get(), "Expired agreement has been renegotiated.");
+        assertEquals("transfer-asset-1", state.getEndpoint().getId(), "Endpoint has been refreshed under the new agreement.");
+    }
+
+    @Test
+    public void testRefreshFailure() {
+        RefreshingAgreementController refreshingController = new RefreshingAgreementController();
+        AgreementController.AssetState state = provision(refreshingController, "asset", 60);
+        EndpointDataReference previous = refreshingController.get("asset");
+        refreshingController.agreementExpired = true;
+        refreshingController.connectorDown = true;
+        refreshingController.refreshEndpoints(Runnable::run);
+        assertFalse(state.refreshing.get(), "Failed refresh has finished.");
+        assertSame(previous, refreshingController.get("asset"), "Previous endpoint is handed out until it expires.");
+        refreshingController.connectorDown = false;
+        refreshingController.refreshEndpoints(Runnable::run);
+        assertEquals("transfer-asset-1", state.getEndpoint().getId(), "Next check refreshes the endpoint.");
+    }
+
+    @Test
+    public void testUnexpectedFailure() {
+        RefreshingAgreementController failingController = new RefreshingAgreementController();
+        failingController.clientBroken = true;
+        assertThrows(IllegalStateException.class, () -> failingController.createAgreement("http://localhost:8282", "asset"), "Unexpected failure is propagated.");
+        assertFalse(failingController.assetStore.containsKey("asset"), "Failed asset is not active anymore.");
+        failingController.clientBroken = false;
+        assertNotNull(failingController.createAgreement("http://localhost:8282", "asset"), "Next request provisions the asset.");
+        assertEquals(2, failingController.negotiations.get(), "Next request has negotiated again.");
+    }
+
+    @Test
+    public void testReuseAgreement() {
+        RefreshingAgreementController reusingController = new RefreshingAgreementController();
+        provision(reusingController, "asset", 10);
+        assertNull(reusingController.get("asset"), "Expired asset is retired.");
+        EndpointDataReference reference = reusingController.createAgreement("http://localhost:8282", "asset");
+        assertNotNull(reference, "Asset has been provisioned again.");
+        assertEquals(0, reusingController.negotiations.get(), "No negotiation was needed.");
+        assertEquals(1, reusingController.transfers.get(), "A new transfer has been made.");
+        assertEquals("agreement-asset", reusingController.assetStore.get("asset").agreement.getId(), "Transfer runs under the previous agreement.");
+    }
+
+    @Test
+    public void testReuseExpiredAgreement() {
+        RefreshingAgreementController reusingController = new RefreshingAgreementController();
+        provision(reusingController, "asset", 10);
+        assertNull(reusingController.get("asset"), "Expired asset is retired.");
+        reusingController.agreementExpired = true;
+        assertNotNull(reusingController.createAgreement("http://localhost:8282", "asset"), "Asset has been provisioned again.");
+        assertEquals(1, reusingController.negotiations.get(), "Expired agreement has been renegotiated.");
+        assertEquals("agreement-asset-1", reusingController.agreementStore.get("asset").getAgreement().getId(), "New agreement is kept.");
+        reusingController.deactivate("asset");
+        reusingController.createAgreement("http://localhost:8283", "asset");
+        assertEquals(2, reusingController.negotiations.get(), "Agreement with another connector is not reused.");
+    }
+
+    @Test
+    public void testRestore(@TempDir Path directory) {
+        TypeManager typeManager = new TypeManager();
+        String key = Base64.getEncoder().encodeToString("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+        RefreshingAgreementController previousController = new RefreshingAgreementController(new FileAgreementStore(directory, typeManager, monitor, key));
+        provision(previousController, "valid", 3600);
+        provision(previousController, "expired", 10);
+        RefreshingAgreementController restartedController = new RefreshingAgreementController(new FileAgreementStore(directory, typeManager, monitor, key));
+        EndpointDataReference reference = restartedController.get("valid");
+        assertNotNull(reference, "Valid endpoint has been restored.");
+        assertEquals("http://localhost:8080/valid", reference.getEndpoint(), "Restored endpoint is correct.");
+        assertEquals("transfer-valid", restartedController.processIndex.entrySet().iterator().next().getKey(), "Restored transfer is indexed.");
+        assertNull(restartedController.get("expired"), "Expired endpoint has not been restored.");
+        assertNotNull(restartedController.createAgreement("http://localhost:8282", "expired"), "Expired asset has been provisioned again.");
+        assertEquals(0, restartedController.negotiations.get(), "Restored agreement has been reused.");
+        assertEquals(1, restartedController.transfers.get(), "Only the expired asset needed a transfer.");
+    }
+
+    /**
+     * @param state of the transfer
+     * @return a transfer process in the given state
+     */
+    protected TransferProcess transferProcess(String state) {
+        return new TransferProcess(Json.createObjectBuilder()
+                .add("@id", "transfer")
+                .add("https://w3id.org/edc/v0.0.1/ns/state", state)
+                .build());
+    }
+
+    AgentConfig trackingConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+            AgentConfig.NEGOTIATION_CALLBACKS_PROPERTY, "true",
+            AgentConfig.NEGOTIATION_POLLINTERVAL_PROPERTY, "10000",
+            AgentConfig.NEGOTIATION_POLLINITIAL_PROPERTY, "100",
+            AgentConfig.CALLBACK_ENDPOINT, "http://localhost:8187/callback/endpoint-data-reference")));
+
+    /**
+     * @param transferState the current state of the transfer
+     * @param checks counts the status checks
+     * @return an agreement controller which checks the given transfer state
+     */
+    protected AgreementController trackingController(AtomicReference<String> transferState, AtomicInteger checks) throws Exception {
+        DataManagement dataManagement = Mockito.mock(DataManagement.class);
+        Mockito.when(dataManagement.getTransfer("transfer")).thenAnswer(invocation -> {
+            checks.incrementAndGet();
+            return transferProcess(transferState.get());
+        });
+        return new AgreementController(monitor, trackingConfig, dataManagement);
+    }
+
+    @Test
+    public void testTrackEvent() throws Exception {
+        AtomicReference<String> transferState = new AtomicReference<>("REQUESTED");
+        AtomicInteger checks = new AtomicInteger();
+        AgreementController trackingController = trackingController(transferState, checks);
+        Future<TransferProcess> tracked = threadedExecutor.submit(() -> trackingController.track("transfer",
+                () -> trackingController.dataManagement.getTransfer("transfer"), status -> status.getState().equals("COMPLETED")));
+        Thread.sleep(1000);
+        int checksBefore = checks.get();
+        long startTime = System.currentTimeMillis();
+        transferState.set("COMPLETED");
+        trackingController.receiveEdcEvent(Map.of("type", "TransferProcessCompleted", "payload", Map.of("transferProcessId", "transfer")));
+        assertEquals("COMPLETED", tracked.get().getState(), "Tracking ended with the final state.");
+        long latency = System.currentTimeMillis() - startTime;
+        monitor.info(String.format("Event was tracked after %d ms and %d status checks.", latency, checks.get()));
+        assertTrue(latency < 1000, "Event wakes up the tracking before the next poll.");
+        assertEquals(checksBefore + 1, checks.get(), "Event leads to exactly one status check.");
+        assertTrue(trackingController.wakeUps.isEmpty(), "Signals are cleaned up.");
+    }
+
+    @Test
+    public void testTrackBackoff() throws Exception {
+        AtomicReference<String> transferState = new AtomicReference<>("REQUESTED");
+        AtomicInteger checks = new AtomicInteger();
+        AgreementController trackingController = trackingController(transferState, checks);
+        Future<TransferProcess> tracked = threadedExecutor.submit(() -> trackingController.track("transfer",
+                () -> trackingController.dataManagement.getTransfer("transfer"), status -> status.getState().equals("COMPLETED")));
+        Thread.sleep(2000);
+        transferState.set("COMPLETED");
+        assertEquals("COMPLETED", tracked.get().getState(), "Tracking without events ended with the final state.");
+        // checks at 0, 100, 300, 700, 1500 and 3100 milliseconds instead of every 100 milliseconds
+        assertTrue(checks.get() <= 6, "Status checks back off exponentially.");
+    }
+
+    /**
+     * @param asset name of the asset
+     * @param policies ids of the offered policies
+     * @return a catalog with an offer per policy
+     */
+    public static DcatCatalog createCatalog(String asset, String... policies) {
+        JsonArrayBuilder datasets = Json.createArrayBuilder();
+        for (String policy : policies) {
+            datasets.add(Json.createObjectBuilder()
+                    .add("@id", asset)
+                    .add("http://www.w3.org/ns/odrl/2/hasPolicy", Json.createObjectBuilder()
+                            .add("@id", policy + ":" + asset)
+                            .add("http://www.w3.org/ns/odrl/2/permission", policy)));
+        }
+        return new DcatCatalog(Json.createObjectBuilder()
+                .add("https://www.w3.org/ns/dcat/dataset", datasets)
+                .build());
+    }
+
+    @Test
+    public void testCachedContractOffers() throws Exception {
+        DataManagement dataManagement = Mockito.mock(DataManagement.class);
+        Mockito.when(dataManagement.findContractOffers("http://localhost:8282", "asset")).thenAnswer(invocation -> createCatalog("asset", "policy"));
+        Mockito.when(dataManagement.findContractOffers("http://localhost:8282", "missing")).thenReturn(createCatalog("missing"));
+        AgentConfig cachingConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(AgentConfig.NEGOTIATION_CATALOG_TTL_PROPERTY, "60000")));
+        AgreementController cachingController = new AgreementController(monitor, cachingConfig, dataManagement);
+        DcatCatalog first = cachingController.findContractOffers("http://localhost:8282", "asset");
+        assertSame(first, cachingController.findContractOffers("http://localhost:8282", "asset"), "Contract offers are reused.");
+        Mockito.verify(dataManagement, Mockito.times(1)).findContractOffers("http://localhost:8282", "asset");
+        cachingController.forgetContractOffers("http://localhost:8282", "asset");
+        assertNotSame(first, cachingController.findContractOffers("http://localhost:8282", "asset"), "Forgotten contract offers are looked up again.");
+        cachingController.findContractOffers("http://localhost:8282", "missing");
+        cachingController.findContractOffers("http://localhost:8282", "missing");
+        Mockito.verify(dataManagement, Mockito.times(2)).findContractOffers("http://localhost:8282", "missing");
+    }
+
+    @Test
+    public void testEvictedContractOffers() throws Exception {
+        DataManagement dataManagement = Mockito.mock(DataManagement.class);
+        Mockito.when(dataManagement.findContractOffers(Mockito.anyString(), Mockito.anyString())).thenAnswer(invocation -> createCatalog(invocation.getArgument(1), "policy"));
+        AgentConfig boundedConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+                AgentConfig.NEGOTIATION_CATALOG_TTL_PROPERTY, "60000",
+                AgentConfig.NEGOTIATION_CATALOG_CACHE_PROPERTY, "10")));
+        AgreementController boundedController = new AgreementController(monitor, boundedConfig, dataManagement);
+        for (int asset = 0; asset < 3; asset++) {
+            boundedController.findContractOffers("http://localhost:8282", "asset" + asset);
+        }
+        boundedController.catalogCache.put("http://localhost:8282#expired", Map.entry(System.currentTimeMillis() - 1, createCatalog("expired", "policy")));
+        for (int asset = 0; asset < 3; asset++) {
+            boundedController.findContractOffers("http://localhost:8282", "asset" + asset);
+        }
+        boundedController.findContractOffers("http://localhost:8282", "fresh");
+        assertFalse(boundedController.catalogCache.containsKey("http://localhost:8282#expired"), "Expired lookup is evicted.");
+        assertEquals(4, boundedController.catalogCache.size(), "Valid lookups are kept.");
+        for (int asset = 0; asset < 100; asset++) {
+            boundedController.findContractOffers("http://localhost:8282", "asset" + asset);
+        }
+        assertEquals(10, boundedController.catalogCache.size(), "Cache is bounded.");
+        assertTrue(boundedController.catalogCache.containsKey("http://localhost:8282#asset99"), "Recent lookup is kept.");
+    }
+
+    @Test
+    public void testUncachedContractOffers() throws Exception {
+        DataManagement dataManagement = Mockito.mock(DataManagement.class);
+        Mockito.when(dataManagement.findContractOffers("http://localhost:8282", "asset")).thenReturn(createCatalog("asset", "policy"));
+        AgentConfig uncachedConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(AgentConfig.NEGOTIATION_CATALOG_TTL_PROPERTY, "0")));
+        AgreementController uncachedController = new AgreementController(monitor, uncachedConfig, dataManagement);
+        uncachedController.findContractOffers("http://localhost:8282", "asset");
+        uncachedController.findContractOffers("http://localhost:8282", "asset");
+        Mockito.verify(dataManagement, Mockito.times(2)).findContractOffers("http://localhost:8282", "asset");
+    }
+
+    @Test
+    public void testEventCallbacks() {
+        AgreementController callbackController = new AgreementController(monitor, trackingConfig, null);
+        List<CallbackAddress> addresses = new ArrayList<>();
+        addresses.add(CallbackAddress.Builder.newInstance().uri(trackingConfig.getCallbackEndpoint()).build());
+        addresses.addAll(callbackController.getEventCallbacks("transfer.process"));
+        String callbacks = DataManagement.asEventCallbacks(addresses);
+        assertEquals("[{\"uri\":\"http://localhost:8187/callback/endpoint-data-reference/event\",\"events\":[\"transfer.process\"],\"transactional\":false}]", callbacks,
+                "Only the event callbacks are rendered.");
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        SlowAgreementController slowController = new SlowAgreementController(false);
+        List<Future<EndpointDataReference>> futures = new ArrayList<>();
+        ExecutorService requestExecutor = Executors.newFixedThreadPool(10);
+        try {
+            for (int request = 0; request < 10; request++) {
+                futures.add(requestExecutor.submit(() -> slowController.createAgreement("http://localhost:8282", "asset")));
+            }
+            for (Future<EndpointDataReference> future : futures) {
+                assertEquals("http://localhost:8080/asset", future.get().getEndpoint(), "All requests got the endpoint.");
+            }
+        } finally {
+            requestExecutor.shutdownNow();
+        }
+        assertEquals(1, slowController.negotiations.get(), "Concurrent requests share a single negotiation.");
+    }
+
+    @Test
+    public void testSingleFlightFailure() throws Exception {
+        SlowAgreementController slowController = new SlowAgreementController(true);
+        List<Future<EndpointDataReference>> futures = new ArrayList<>();
+        ExecutorService requestExecutor = Executors.newFixedThreadPool(5);
+        try {
+            for (int request = 0; request < 5; request++) {
+                futures.add(requestExecutor.submit(() -> slowController.createAgreement("http://localhost:8282", "asset")));
+            }
+            for (Future<EndpointDataReference> future : futures) {
+                ExecutionException e = assertThrows(ExecutionException.class, future::get, "Failure is propagated.");
+                assertTrue(e.getCause() instanceof InternalServerErrorException, "Original failure is propagated.");
+            }
+        } finally {
+            requestExecutor.shutdownNow();
+        }
+        assertTrue(slowController.negotiations.get() < 5, "Concurrent requests share the failing negotiation.");
+    }
+
+    @Test
+    public void testDecodedExpiry() {
+        provision("asset", 3600);
+        EndpointDataReference reference = agreementController.get("asset");
+        int calls = 200000;
+        int found = 0;
+        // the former lookup decoded the token on each call
+        long startTime = System.nanoTime();
+        for (int call = 0; call < calls; call++) {
+            if (agreementController.isValid("asset", reference)) {
+                found++;
+            }
+        }
+        long decodingNanos = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (int call = 0; call < calls; call++) {
+            if (agreementController.get("asset") != null) {
+                found++;
+            }
+        }
+        long decodedNanos = System.nanoTime() - startTime;
+        monitor.info(String.format("Performed %d lookups in %d ms when decoding the token, in %d ms with the decoded expiry.",
+                calls, decodingNanos / 1000000, decodedNanos / 1000000));
+        assertEquals(2 * calls, found, "All lookups have been successful.");
+        assertEquals(agreementController.getExpiry("asset", reference), agreementController.assetStore.get("asset").endpoint.expiry,
+                "Expiry has been decoded when installing the endpoint.");
+        assertTrue(decodedNanos < decodingNanos, "Lookups with the decoded expiry are faster.");
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception {
+        int assets = 100;
+        int calls = 20000;
+        for (int asset = 0; asset < assets; asset++) {
+            provision("asset" + asset, 3600);
+        }
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long startTime = System.nanoTime();
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final int offset = thread;
+                futures.add(threadedExecutor.submit(() -> {
+                    int found = 0;
+                    for (int call = 0; call < calls; call++) {
+                        if (agreementController.get("asset" + ((call + offset) % assets)) != null) {
+                            found++;
+                        }
+                    }
+                    return found;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(calls, future.get(), "All lookups have been successful.");
+            }
+            long nanos = System.nanoTime() - startTime;
+            monitor.info(String.format("%d threads performed %d lookups in %d ms (%.0f lookups/s).", threads, threads * calls, nanos / 1000000, threads * calls * 1.0e9 / nanos));
+        }
+    }
+}
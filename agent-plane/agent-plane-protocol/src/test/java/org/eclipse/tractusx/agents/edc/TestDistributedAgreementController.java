@@ -0,0 +1,174 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import jakarta.json.Json;
+import jakarta.ws.rs.WebApplicationException;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.model.ContractAgreement;
+import org.eclipse.tractusx.agents.edc.model.TransferProcess;
+import org.eclipse.tractusx.agents.edc.service.DataManagement;
+import org.eclipse.tractusx.agents.edc.service.InMemoryAgreementCluster;
+import org.eclipse.tractusx.agents.edc.service.InMemoryAgreementStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests several replicas of the agreement controller which share
+ * an in-process store and cluster. All callbacks of the control plane
+ * are posted to the first replica.
+ */
+public class TestDistributedAgreementController {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    AgentConfig agentConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+            AgentConfig.NEGOTIATION_POLLINTERVAL_PROPERTY, "1000",
+            AgentConfig.NEGOTIATION_POLLINITIAL_PROPERTY, "50",
+            AgentConfig.CALLBACK_ENDPOINT, "http://localhost:8187/callback/endpoint-data-reference")));
+    IAgreementStore store = new InMemoryAgreementStore();
+    IAgreementCluster cluster = new InMemoryAgreementCluster();
+    AtomicInteger negotiations = new AtomicInteger();
+    AtomicInteger transfers = new AtomicInteger();
+    ScheduledExecutorService controlPlane = Executors.newSingleThreadScheduledExecutor();
+    ExecutorService requestExecutor = Executors.newFixedThreadPool(4);
+    DataManagement dataManagement = Mockito.mock(DataManagement.class);
+    SimulatedController replicaA;
+    SimulatedController replicaB;
+
+    /**
+     * a replica which simulates the negotiation
+     */
+    class SimulatedController extends DistributedAgreementController {
+
+        SimulatedController(ConsoleMonitor monitor, AgentConfig config, DataManagement dataManagement, IAgreementStore store, IAgreementCluster cluster) {
+            super(monitor, config, dataManagement, store, cluster);
+        }
+
+        @Override
+        protected ContractAgreement negotiate(String remoteUrl, String asset, AssetState state) throws WebApplicationException {
+            negotiations.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ContractAgreement agreement = new ContractAgreement(Json.createObjectBuilder()
+                    .add("@id", "agreement-" + asset)
+                    .add("https://w3id.org/edc/v0.0.1/ns/assetId", asset)
+                    .build());
+            state.remoteUrl = remoteUrl;
+            registerAgreement(asset, agreement);
+            agreementStore.put(new AgreementRecord(asset, remoteUrl, agreement, Map.of(), null));
+            return agreement;
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        replicaA = new SimulatedController(monitor, agentConfig, dataManagement, store, cluster);
+        replicaB = new SimulatedController(monitor, agentConfig, dataManagement, store, cluster);
+        // the control plane completes each transfer at once and posts the endpoint shortly after to the first replica
+        Mockito.when(dataManagement.initiateHttpProxyTransferProcess(Mockito.any())).thenAnswer(invocation -> {
+            String transferId = "transfer-" + transfers.incrementAndGet();
+            controlPlane.schedule(() -> replicaA.receiveEdcCallback(EndpointDataReference.Builder.newInstance()
+                    .id(transferId)
+                    .endpoint("http://localhost:8080/" + transferId)
+                    .authKey("Authorization")
+                    .authCode(TestAgreementController.createToken(3600))
+                    .build()), 200, TimeUnit.MILLISECONDS);
+            return transferId;
+        });
+        Mockito.when(dataManagement.getTransfer(Mockito.anyString())).thenAnswer(invocation ->
+                new TransferProcess(Json.createObjectBuilder()
+                        .add("@id", (String) invocation.getArgument(0))
+                        .add("https://w3id.org/edc/v0.0.1/ns/state", "COMPLETED")
+                        .build()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        controlPlane.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testCallbackOnOtherReplica() {
+        EndpointDataReference reference = replicaB.createAgreement("http://localhost:8282", "asset");
+        assertNotNull(reference, "Replica got the endpoint which has been posted to another replica.");
+        assertEquals("transfer-1", reference.getId(), "Endpoint belongs to the transfer of the replica.");
+        assertNull(replicaA.assetStore.get("asset"), "Other replica has not activated the asset.");
+        assertEquals("transfer-1", store.get("asset").getEndpoint().getId(), "Endpoint has been shared.");
+    }
+
+    @Test
+    public void testSingleNegotiation() throws Exception {
+        Future<EndpointDataReference> first = requestExecutor.submit(() -> replicaA.createAgreement("http://localhost:8282", "asset"));
+        Future<EndpointDataReference> second = requestExecutor.submit(() -> replicaB.createAgreement("http://localhost:8282", "asset"));
+        assertEquals("transfer-1", first.get().getId(), "First replica got the endpoint.");
+        assertEquals("transfer-1", second.get().getId(), "Second replica got the same endpoint.");
+        assertEquals(1, negotiations.get(), "Only one replica negotiated.");
+        assertEquals(1, transfers.get(), "Only one replica transferred.");
+        assertNotNull(replicaA.get("asset"), "First replica has the asset active.");
+        assertNotNull(replicaB.get("asset"), "Second replica has the asset active.");
+    }
+
+    @Test
+    public void testTakeOver() {
+        replicaA.createAgreement("http://localhost:8282", "asset");
+        SimulatedController replicaC = new SimulatedController(monitor, agentConfig, dataManagement, store, cluster);
+        assertNotNull(replicaC.get("asset"), "New replica restored the shared endpoint.");
+        assertNotNull(replicaB.createAgreement("http://localhost:8282", "asset"), "Running replica took over the shared endpoint.");
+        assertEquals(1, negotiations.get(), "No further negotiation was needed.");
+        assertEquals(1, transfers.get(), "No further transfer was needed.");
+    }
+
+    @Test
+    public void testSingleRefresh() throws Exception {
+        replicaA.createAgreement("http://localhost:8282", "asset");
+        replicaB.createAgreement("http://localhost:8282", "asset");
+        AgreementController.AssetState stateA = replicaA.assetStore.get("asset");
+        AgreementController.AssetState stateB = replicaB.assetStore.get("asset");
+        EndpointDataReference previous = stateA.getEndpoint();
+        Future<?> refreshA = requestExecutor.submit(() -> replicaA.refresh(stateA, previous));
+        Future<?> refreshB = requestExecutor.submit(() -> replicaB.refresh(stateB, previous));
+        refreshA.get();
+        refreshB.get();
+        // the next check of a replica which has been left out
+        replicaA.refresh(stateA, previous);
+        replicaB.refresh(stateB, previous);
+        assertEquals(1, negotiations.get(), "Refresh did not renegotiate.");
+        assertEquals(2, transfers.get(), "Only one replica transferred a refreshed endpoint.");
+        assertEquals("transfer-2", stateA.getEndpoint().getId(), "First replica uses the refreshed endpoint.");
+        assertEquals("transfer-2", stateB.getEndpoint().getId(), "Second replica uses the refreshed endpoint.");
+        assertEquals("transfer-2", store.get("asset").getEndpoint().getId(), "Refreshed endpoint has been shared.");
+        assertTrue(cluster.claim("asset", "other", 1000), "Claims have been released.");
+    }
+}
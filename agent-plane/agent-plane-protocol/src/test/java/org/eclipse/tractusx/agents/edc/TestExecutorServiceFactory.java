@@ -0,0 +1,122 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc;
+
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the modes of the federation executor
+ */
+public class TestExecutorServiceFactory {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    ExecutorService sharedExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * a runtime which offers virtual threads
+     */
+    public static class VirtualExecutors {
+        static final ExecutorService VIRTUAL = Executors.newSingleThreadExecutor();
+
+        public static ExecutorService newVirtualThreadPerTaskExecutor() {
+            return VIRTUAL;
+        }
+    }
+
+    protected AgentConfig createConfig(String mode, int threads) {
+        return new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+                AgentConfig.FEDERATION_EXECUTOR_MODE, mode,
+                AgentConfig.FEDERATION_EXECUTOR_THREADS, String.valueOf(threads))));
+    }
+
+    @Test
+    public void testShared() {
+        assertSame(sharedExecutor, ExecutorServiceFactory.createFederationExecutor(createConfig(ExecutorServiceFactory.SHARED_MODE, 4), monitor, sharedExecutor), "Shared pool is used.");
+        assertSame(sharedExecutor, ExecutorServiceFactory.createFederationExecutor(createConfig("unknown", 4), monitor, sharedExecutor), "Unknown mode falls back to the shared pool.");
+    }
+
+    @Test
+    public void testVirtual() {
+        ExecutorService executor = ExecutorServiceFactory.createFederationExecutor(createConfig(ExecutorServiceFactory.VIRTUAL_MODE, 4), monitor, sharedExecutor, VirtualExecutors.class);
+        assertSame(VirtualExecutors.VIRTUAL, executor, "Virtual thread executor is looked up reflectively.");
+    }
+
+    @Test
+    public void testVirtualFallback() {
+        ExecutorService executor = ExecutorServiceFactory.createFederationExecutor(createConfig(ExecutorServiceFactory.VIRTUAL_MODE, 4), monitor, sharedExecutor, Object.class);
+        try {
+            assertTrue(executor instanceof ThreadPoolExecutor, "Runtime without virtual threads falls back to the elastic mode.");
+            assertEquals(4, ((ThreadPoolExecutor) executor).getMaximumPoolSize(), "Fallback is bounded.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRuntime() {
+        ExecutorService executor = ExecutorServiceFactory.createFederationExecutor(createConfig(ExecutorServiceFactory.VIRTUAL_MODE, 4), monitor, sharedExecutor);
+        try {
+            assertEquals(Runtime.version().feature() < 21, executor instanceof ThreadPoolExecutor, "Virtual threads are used if and only if the runtime offers them.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBoundedElastic() throws Exception {
+        int threads = 3;
+        ExecutorService executor = ExecutorServiceFactory.createFederationExecutor(createConfig(ExecutorServiceFactory.ELASTIC_MODE, threads), monitor, sharedExecutor);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(threads);
+        try {
+            List<Future<?>> blocked = new ArrayList<>();
+            for (int task = 0; task < threads; task++) {
+                blocked.add(executor.submit(() -> {
+                    running.countDown();
+                    release.await();
+                    return null;
+                }));
+            }
+            assertTrue(running.await(10, TimeUnit.SECONDS), "Tasks run in parallel up to the maximum.");
+            Thread caller = Thread.currentThread();
+            Future<Thread> overflow = executor.submit(Thread::currentThread);
+            assertSame(caller, overflow.get(), "Task beyond the maximum runs on the submitting thread.");
+            release.countDown();
+            for (Future<?> task : blocked) {
+                task.get();
+            }
+            assertEquals(threads, ((ThreadPoolExecutor) executor).getLargestPoolSize(), "No thread beyond the maximum has been created.");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.http;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the java.net.http facade over OkHttp
+ */
+public class TestHttpClientAdapter {
+
+    /**
+     * a client which answers each request by echoing its body
+     */
+    OkHttpClient echoClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+        Buffer echo = new Buffer();
+        if (chain.request().body() != null) {
+            chain.request().body().writeTo(echo);
+        }
+        return new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(echo.readByteArray(), MediaType.parse("text/plain")))
+                .build();
+    }).build();
+
+    HttpClientAdapter adapter = new HttpClientAdapter(echoClient);
+
+    protected HttpRequest post(String body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:8080/sparql"))
+                .header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    protected String read(HttpResponse<InputStream> response) throws Exception {
+        try (InputStream stream = response.body()) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        HttpResponse<InputStream> response = adapter.send(post("SELECT * WHERE { ?s ?p ?o }"), HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, response.statusCode(), "Correct status.");
+        assertEquals("SELECT * WHERE { ?s ?p ?o }", read(response), "Body has been transferred.");
+    }
+
+    @Test
+    public void testSendWithoutBody() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080/sparql")).GET().build();
+        HttpResponse<InputStream> response = adapter.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, response.statusCode(), "Correct status.");
+        assertEquals("", read(response), "No body has been transferred.");
+    }
+
+    @Test
+    public void testSendAsync() throws Exception {
+        List<CompletableFuture<HttpResponse<InputStream>>> futures = new ArrayList<>();
+        for (int count = 0; count < 100; count++) {
+            futures.add(adapter.sendAsync(post("query " + count), HttpResponse.BodyHandlers.ofInputStream()));
+        }
+        for (int count = 0; count < 100; count++) {
+            HttpResponse<InputStream> response = futures.get(count).get();
+            assertEquals(200, response.statusCode(), "Correct status.");
+            assertEquals("query " + count, read(response), "Body has been transferred.");
+        }
+    }
+
+    /**
+     * a publisher which emits the given number of direct buffers on demand
+     */
+    protected Flow.Publisher<ByteBuffer> directPublisher(int chunks, String chunk) {
+        return subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            int sent = 0;
+            boolean done = false;
+
+            @Override
+            public void request(long n) {
+                for (long count = 0; count < n && sent < chunks; count++, sent++) {
+                    byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+                    buffer.put(bytes);
+                    buffer.flip();
+                    subscriber.onNext(buffer);
+                }
+                if (sent == chunks && !done) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                done = true;
+            }
+        });
+    }
+
+    @Test
+    public void testSendDirectBuffers() throws Exception {
+        int chunks = 10000;
+        String chunk = "(<urn:asset:0815> \"value\")\n";
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080/sparql"))
+                .header("Content-Type", "application/sparql-query")
+                .POST(HttpRequest.BodyPublishers.fromPublisher(directPublisher(chunks, chunk)))
+                .build();
+        HttpResponse<InputStream> response = adapter.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, response.statusCode(), "Correct status.");
+        assertEquals(chunk.repeat(chunks), read(response), "Direct buffers have been streamed.");
+    }
+
+    @Test
+    public void testSendLargeBody() throws Exception {
+        String body = "SELECT * WHERE { VALUES (?s) { " + "(<urn:asset:0815>) ".repeat(100000) + "} }";
+        HttpResponse<InputStream> response = adapter.sendAsync(post(body), HttpResponse.BodyHandlers.ofInputStream()).get();
+        assertEquals(200, response.statusCode(), "Correct status.");
+        assertEquals(body, read(response), "Large body has been streamed.");
+    }
+}
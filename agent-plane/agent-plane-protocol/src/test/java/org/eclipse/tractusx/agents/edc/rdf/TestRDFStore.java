@@ -0,0 +1,153 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.rdf;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.TxnType;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
+import org.eclipse.tractusx.agents.edc.AgentConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the memory and persistent modes of the rdf store
+ */
+public class TestRDFStore {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * a store which counts how often it loads the asset files
+     */
+    class CountingStore extends RDFStore {
+        CountingStore(AgentConfig config) {
+            super(config, TestRDFStore.this.monitor);
+        }
+
+        @Override
+        protected void load(String[] assetFiles) {
+            loads.incrementAndGet();
+            super.load(assetFiles);
+        }
+    }
+
+    protected AgentConfig createConfig(Path directory, String assetFile, boolean reload) {
+        return new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+                AgentConfig.RDF_STORE_PROPERTY, directory.toString(),
+                AgentConfig.ASSET_FILE_PROPERTY, assetFile,
+                AgentConfig.RDF_STORE_RELOAD_PROPERTY, String.valueOf(reload))));
+    }
+
+    protected AgentConfig createConfig(Path directory, Path assetFile) {
+        return createConfig(directory, assetFile.toString(), false);
+    }
+
+    protected Path createAssetFile(Path directory, String name, int triples) throws IOException {
+        StringBuilder turtle = new StringBuilder();
+        for (int count = 0; count < triples; count++) {
+            turtle.append(String.format("<urn:%s:%d> <urn:cx:hasName> \"%s\" .\n", name, count, name));
+        }
+        return Files.writeString(directory.resolve(name + ".ttl"), turtle);
+    }
+
+    protected long countTriples(RDFStore store) {
+        store.getDataSet().begin(TxnType.READ);
+        try {
+            return store.getDataSet().getGraph(store.getDefaultGraph()).size();
+        } finally {
+            store.getDataSet().end();
+        }
+    }
+
+    @Test
+    public void testMemory(@TempDir Path directory) throws IOException {
+        Path assetFile = createAssetFile(directory, "ontology", 10);
+        RDFStore store = new RDFStore(new AgentConfig(monitor, ConfigFactory.fromMap(Map.of("cx.agent.asset.file", assetFile.toString()))), monitor);
+        assertEquals(10, countTriples(store), "Memory store has been loaded.");
+        store.close();
+        assertFalse(Files.exists(directory.resolve(RDFStore.LOADED_ASSETS_FILE)), "Memory store records nothing.");
+    }
+
+    @Test
+    public void testPersistent(@TempDir Path directory) throws IOException {
+        Path storeDirectory = directory.resolve("store");
+        Path assetFile = createAssetFile(directory, "ontology", 10);
+        AgentConfig config = createConfig(storeDirectory, assetFile);
+        RDFStore store = new CountingStore(config);
+        assertEquals(10, countTriples(store), "Persistent store has been loaded.");
+        store.close();
+        RDFStore restartedStore = new CountingStore(config);
+        assertNotSame(store.getDataSet(), restartedStore.getDataSet(), "Persistent store has been reopened.");
+        assertEquals(10, countTriples(restartedStore), "Persistent store has kept the assets.");
+        assertEquals(1, loads.get(), "Persistent store has been reused without loading.");
+        restartedStore.close();
+    }
+
+    @Test
+    public void testEditedAsset(@TempDir Path directory) throws IOException {
+        Path storeDirectory = directory.resolve("store");
+        Path assetFile = createAssetFile(directory, "ontology", 10);
+        RDFStore store = new CountingStore(createConfig(storeDirectory, assetFile));
+        store.close();
+        // edited in place
+        createAssetFile(directory, "ontology", 7);
+        RDFStore restartedStore = new CountingStore(createConfig(storeDirectory, assetFile));
+        assertEquals(2, loads.get(), "Edited asset file has been reloaded.");
+        assertEquals(7, countTriples(restartedStore), "Persistent store holds the edited asset.");
+        restartedStore.close();
+    }
+
+    @Test
+    public void testForcedReload(@TempDir Path directory) throws IOException {
+        Path storeDirectory = directory.resolve("store");
+        Path assetFile = createAssetFile(directory, "ontology", 10);
+        RDFStore store = new CountingStore(createConfig(storeDirectory, assetFile));
+        assertEquals(RDFStore.UNCHECKED_HASH, store.getHash("https://w3id.org/catenax/ontology"), "Remote asset files cannot be checked for changes.");
+        store.close();
+        RDFStore reloadedStore = new CountingStore(createConfig(storeDirectory, assetFile.toString(), true));
+        assertEquals(2, loads.get(), "Reload has been forced.");
+        assertEquals(10, countTriples(reloadedStore), "Persistent store holds the reloaded asset once.");
+        reloadedStore.close();
+    }
+
+    @Test
+    public void testChangedAssets(@TempDir Path directory) throws IOException {
+        Path storeDirectory = directory.resolve("store");
+        RDFStore store = new RDFStore(createConfig(storeDirectory, createAssetFile(directory, "ontology", 10)), monitor);
+        store.close();
+        RDFStore restartedStore = new RDFStore(createConfig(storeDirectory, createAssetFile(directory, "other", 5)), monitor);
+        assertEquals(5, countTriples(restartedStore), "Persistent store has been reloaded from the changed asset files.");
+        restartedStore.getDataSet().begin(TxnType.READ);
+        try {
+            assertTrue(restartedStore.getDataSet().contains(restartedStore.getDefaultGraph(), NodeFactory.createURI("urn:other:0"), NodeFactory.createURI("urn:cx:hasName"), NodeFactory.createLiteral("other")), "New asset has been loaded.");
+            assertFalse(restartedStore.getDataSet().contains(restartedStore.getDefaultGraph(), NodeFactory.createURI("urn:ontology:0"), NodeFactory.createURI("urn:cx:hasName"), NodeFactory.createLiteral("ontology")), "Former asset has been removed.");
+        } finally {
+            restartedStore.getDataSet().end();
+        }
+        restartedStore.close();
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.tractusx.agents.edc.AgentConfig;
+import org.eclipse.tractusx.agents.edc.TestAgreementController;
+import org.eclipse.tractusx.agents.edc.TestConfig;
+import org.eclipse.tractusx.agents.edc.model.DcatDataset;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ranking of contract offers by their negotiation cost
+ */
+public class TestCostBasedOfferRanking {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    AgentConfig agentConfig = new AgentConfig(monitor, new TestConfig());
+    String remoteUrl = "http://localhost:8282";
+
+    @Test
+    public void testRanking() {
+        CostBasedOfferRanking ranking = new CostBasedOfferRanking(agentConfig);
+        List<DcatDataset> offers = TestAgreementController.createCatalog("asset", "slow", "fast", "failing").getDatasets();
+        DcatDataset slow = offers.get(0);
+        DcatDataset fast = offers.get(1);
+        DcatDataset failing = offers.get(2);
+        assertEquals(offers, ranking.rank(remoteUrl, "asset", offers), "Unknown offers keep the catalogue order.");
+        ranking.observe(remoteUrl, failing, 100, false);
+        ranking.observe(remoteUrl, fast, 100, true);
+        assertEquals(List.of(fast, slow, failing), ranking.rank(remoteUrl, "asset", offers), "Fast offers first, failing offers last.");
+        ranking.observe(remoteUrl, fast, 100, false);
+        ranking.observe(remoteUrl, slow, 10000, true);
+        assertEquals(List.of(slow, fast, failing), ranking.rank(remoteUrl, "asset", offers), "Agreed policies are preferred.");
+    }
+
+    @Test
+    public void testPolicyKey() {
+        CostBasedOfferRanking ranking = new CostBasedOfferRanking(agentConfig);
+        DcatDataset offer = TestAgreementController.createCatalog("asset", "policy").getDatasets().get(0);
+        DcatDataset other = TestAgreementController.createCatalog("other", "policy").getDatasets().get(0);
+        ranking.observe(remoteUrl, offer, 100, true);
+        assertTrue(ranking.isAgreed(remoteUrl, other), "Same policy on another asset is known.");
+        assertFalse(ranking.isAgreed("http://localhost:8383", other), "Same policy at another connector is unknown.");
+    }
+}
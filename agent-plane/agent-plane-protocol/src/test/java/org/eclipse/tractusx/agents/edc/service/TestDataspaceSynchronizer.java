@@ -17,6 +17,8 @@
 package org.eclipse.tractusx.agents.edc.service;
 
 import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
 import org.eclipse.tractusx.agents.edc.TestConfig;
 import org.eclipse.tractusx.agents.edc.jsonld.JsonLd;
@@ -24,13 +26,18 @@ import org.eclipse.tractusx.agents.edc.model.DcatCatalog;
 import org.eclipse.tractusx.agents.edc.model.DcatDataset;
 import org.eclipse.tractusx.agents.edc.rdf.RDFStore;
 import okhttp3.*;
+import org.apache.jena.atlas.iterator.Iter;
 import org.apache.jena.graph.Node;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.exec.QueryExec;
 import org.apache.jena.sparql.core.Quad;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
 import org.eclipse.edc.spi.types.TypeManager;
 import org.eclipse.tractusx.agents.edc.AgentConfig;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -38,11 +45,25 @@ import org.eclipse.edc.spi.monitor.ConsoleMonitor;
 import org.apache.jena.graph.NodeFactory;
 
 
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -265,4 +286,330 @@ public class TestDataspaceSynchronizer {
         Collection<Quad> results = cat.getDatasets().stream().flatMap(offer -> synchronizer.convertToQuads(graph, connector, offer).stream()).collect(Collectors.toList());
     }
 
-}
\ No newline at end of file
+    /**
+     * @param id of the offered asset
+     * @param version of the offered asset
+     * @return a contract offer
+     */
+    protected static JsonObject createOffer(String id, String version) {
+        return Json.createObjectBuilder()
+                .add("@id", "https://w3id.org/catenax/ontology/common#GraphAsset?test:" + id)
+                .add("https://w3id.org/edc/v0.0.1/ns/id", "https://w3id.org/catenax/ontology/common#GraphAsset?test:" + id)
+                .add("https://w3id.org/edc/v0.0.1/ns/name", "Test Asset " + id)
+                .add("https://w3id.org/edc/v0.0.1/ns/version", version)
+                .add("http://www.w3.org/1999/02/22-rdf-syntax-ns#type", "cx-common:GraphAsset")
+                .add("https://w3id.org/catenax/ontology/common#isFederated", "true")
+                .add("http://www.w3.org/ns/odrl/2/hasPolicy", Json.createObjectBuilder().add("@id", "policy:" + id))
+                .build();
+    }
+
+    /**
+     * @param offers the offers
+     * @return a catalogue with the offers
+     */
+    protected static DcatCatalog createCatalog(JsonObject... offers) {
+        JsonArrayBuilder datasets = Json.createArrayBuilder();
+        for (JsonObject offer : offers) {
+            datasets.add(offer);
+        }
+        return new DcatCatalog(Json.createObjectBuilder()
+                .add("https://www.w3.org/ns/dcat/dataset", datasets)
+                .build());
+    }
+
+    /**
+     * @param remote url of the remote connector
+     * @return number of quads describing the offers of the connector
+     */
+    protected int countOffers(RDFStore rdfStore, String remote) {
+        Node connector = synchronizer.getConnectorNode(remote);
+        rdfStore.getDataSet().begin(TxnType.READ);
+        try {
+            int count = 0;
+            Iterator<Quad> offers = rdfStore.getDataSet().find(rdfStore.getDefaultGraph(), connector, DataspaceSynchronizer.CX_ASSET, Node.ANY);
+            while (offers.hasNext()) {
+                Quad offer = offers.next();
+                count += Iter.count(rdfStore.getDataSet().find(rdfStore.getDefaultGraph(), offer.getObject(), Node.ANY, Node.ANY));
+            }
+            return count;
+        } finally {
+            rdfStore.getDataSet().end();
+        }
+    }
+
+    /**
+     * @param rdfStore the store
+     * @return number of named graphs (holding shapes) in the store
+     */
+    protected int countGraphs(RDFStore rdfStore) {
+        rdfStore.getDataSet().begin(TxnType.READ);
+        try {
+            return (int) Iter.count(rdfStore.getDataSet().listGraphNodes());
+        } finally {
+            rdfStore.getDataSet().end();
+        }
+    }
+
+    /**
+     * @param remotes number of remote connectors
+     * @param timeout milliseconds to fetch a catalogue
+     * @param stub the stubbed data management
+     * @return a synchronizer which is started, but does not run by itself
+     */
+    protected DataspaceSynchronizer createSynchronizer(int remotes, long timeout, DataManagement stub) {
+        List<String> connectors = new ArrayList<>();
+        for (int remote = 0; remote < remotes; remote++) {
+            connectors.add("http://remote" + remote + ":8282");
+        }
+        AgentConfig syncConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+                AgentConfig.DATASPACE_SYNCINTERVAL_PROPERTY, "3600000",
+                AgentConfig.DATASPACE_SYNCCONNECTORS_PROPERTY, String.join(",", connectors),
+                AgentConfig.DATASPACE_SYNCTIMEOUT_PROPERTY, String.valueOf(timeout))));
+        DataspaceSynchronizer syncer = new DataspaceSynchronizer(Executors.newSingleThreadScheduledExecutor(), syncConfig, stub, store, monitor);
+        syncer.start();
+        return syncer;
+    }
+
+    /**
+     * a data management which simulates the control plane and records
+     * how many catalogues are fetched at the same time
+     */
+    protected class CatalogStub {
+        protected final AtomicInteger inFlight = new AtomicInteger();
+        protected final AtomicInteger peak = new AtomicInteger();
+        protected final AtomicInteger versions = new AtomicInteger();
+        protected final CountDownLatch cancelled = new CountDownLatch(1);
+        protected final DataManagement dataManagement = Mockito.mock(DataManagement.class);
+
+        /**
+         * @param gate each fetch waits until this many fetches have been started
+         * @param blockedRemote remote connector which does not answer until it is cancelled
+         * @param during action which each fetch waits for to make progress
+         */
+        protected CatalogStub(CountDownLatch gate, String blockedRemote, Runnable during) throws Exception {
+            Mockito.when(dataManagement.getCatalog(Mockito.anyString(), Mockito.any(), Mockito.anyLong())).thenAnswer(invocation -> {
+                String remote = invocation.getArgument(0);
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    gate.countDown();
+                    if (remote.equals(blockedRemote)) {
+                        try {
+                            new CountDownLatch(1).await(60, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            cancelled.countDown();
+                            throw e;
+                        }
+                    } else {
+                        assertTrue(gate.await(10, TimeUnit.SECONDS), "Enough fetches have been started at the same time.");
+                    }
+                    during.run();
+                    return createCatalog(createOffer(remote.substring(7, remote.lastIndexOf(':')), String.valueOf(versions.incrementAndGet())));
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testApplyDiff() {
+        String remote = "http://diff:8282";
+        synchronizer.apply(synchronizer.convert(remote, createCatalog(createOffer("a", "1.0"), createOffer("b", "1.0"))));
+        assertEquals(10, countOffers(store, remote), "Both offers have been added.");
+        synchronizer.apply(synchronizer.convert(remote, createCatalog(createOffer("a", "1.0"), createOffer("c", "2.0"))));
+        assertEquals(10, countOffers(store, remote), "Offers have been replaced.");
+        Node version = NodeFactory.createURI("https://w3id.org/catenax/ontology/common#version");
+        assertTrue(store.getDataSet().contains(store.getDefaultGraph(), Node.ANY, version, NodeFactory.createLiteral("2.0")), "New offer has been added.");
+        assertEquals(1, Iter.count(store.getDataSet().find(store.getDefaultGraph(), Node.ANY, version, NodeFactory.createLiteral("1.0"))), "Old offer has been removed.");
+        synchronizer.apply(synchronizer.convert(remote, createCatalog()));
+        assertEquals(0, countOffers(store, remote), "All offers have been removed.");
+    }
+
+    @Test
+    public void testUnchangedOffers() {
+        String remote = "http://unchanged:8282";
+        synchronizer.apply(synchronizer.convert(remote, createCatalog(createOffer("a", "1.0"), createOffer("b", "1.0"))));
+        DataspaceSynchronizer.ConnectorOffers offers = synchronizer.convert(remote, createCatalog(createOffer("a", "1.0"), createOffer("b", "1.0")));
+        assertEquals(2, offers.hashes.size(), "All offers have been hashed.");
+        assertTrue(offers.changed.isEmpty(), "Unchanged offers are not converted.");
+        JsonObject renewedPolicy = Json.createObjectBuilder(createOffer("a", "1.0"))
+                .add("http://www.w3.org/ns/odrl/2/hasPolicy", Json.createObjectBuilder().add("@id", "policy:a:renewed"))
+                .build();
+        offers = synchronizer.convert(remote, createCatalog(renewedPolicy, createOffer("b", "2.0"), createOffer("c", "1.0")));
+        assertEquals(2, offers.changed.size(), "Only the changed and the new offer are converted.");
+        synchronizer.apply(offers);
+        assertEquals(15, countOffers(store, remote), "Changed and new offers have been applied.");
+        Node version = NodeFactory.createURI("https://w3id.org/catenax/ontology/common#version");
+        assertEquals(2, Iter.count(store.getDataSet().find(store.getDefaultGraph(), Node.ANY, version, NodeFactory.createLiteral("1.0"))), "Unchanged offer has been kept.");
+        offers = synchronizer.convert(remote, createCatalog(createOffer("c", "1.0")));
+        assertTrue(offers.changed.isEmpty(), "Remaining offer is unchanged.");
+        synchronizer.apply(offers);
+        assertEquals(5, countOffers(store, remote), "Withdrawn offers have been removed.");
+    }
+
+    @Test
+    public void testPurgePersistentStore(@TempDir Path directory) {
+        AgentConfig persistentConfig = new AgentConfig(monitor, ConfigFactory.fromMap(Map.of(
+                AgentConfig.RDF_STORE_PROPERTY, directory.toString(),
+                AgentConfig.DATASPACE_SYNCINTERVAL_PROPERTY, "3600000",
+                AgentConfig.DATASPACE_SYNCCONNECTORS_PROPERTY, "http://kept:8282")));
+        RDFStore persistentStore = new RDFStore(persistentConfig, monitor);
+        DataspaceSynchronizer syncer = new DataspaceSynchronizer(Executors.newSingleThreadScheduledExecutor(), persistentConfig, dm, persistentStore, monitor);
+        try {
+            String shapes = "<urn:shape:Parts> a <http://www.w3.org/ns/shacl#NodeShape> .\n";
+            syncer.apply(syncer.convert("http://kept:8282", createCatalog(createOffer("kept", "1.0"))));
+            syncer.apply(syncer.convert("http://removed:8282", createCatalog(Json.createObjectBuilder(createOffer("removed", "1.0"))
+                    .add("http://www.w3.org/ns/shacl#shapesGraph", shapes).build())));
+            assertEquals(6, countOffers(persistentStore, "http://removed:8282"), "Offer of the former connector is in the store.");
+            assertEquals(1, countGraphs(persistentStore), "Shapes graph of the former connector is in the store.");
+            syncer.start();
+            assertEquals(5, countOffers(persistentStore, "http://kept:8282"), "Offers of synchronized connectors are kept.");
+            assertEquals(0, countOffers(persistentStore, "http://removed:8282"), "Offers of connectors which are not synchronized anymore are purged.");
+            assertEquals(0, countGraphs(persistentStore), "Shapes graph of the purged offer is gone.");
+        } finally {
+            syncer.shutdown();
+            persistentStore.close();
+        }
+    }
+
+    @Test
+    public void testShapesCache() {
+        Node graph = store.getDefaultGraph();
+        Node connector = NodeFactory.createURI("edc://test");
+        String shapes = "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+                "@prefix cx-part: <https://w3id.org/catenax/ontology/part#> .\n" +
+                "<urn:shape:Parts> a sh:NodeShape ;\n" +
+                "  sh:targetClass cx-part:Part ;\n" +
+                "  sh:property [ sh:path cx-part:provisionedBy ; sh:hasValue <urn:bpn:legal:BPNL00000003COJN> ] .\n";
+        DcatDataset first = new DcatDataset(Json.createObjectBuilder(createOffer("first", "1.0")).add("http://www.w3.org/ns/shacl#shapesGraph", shapes).build());
+        DcatDataset second = new DcatDataset(Json.createObjectBuilder(createOffer("second", "1.0")).add("http://www.w3.org/ns/shacl#shapesGraph", shapes).build());
+        Set<Quad> firstQuads = new HashSet<>(synchronizer.convertToQuads(graph, connector, first));
+        assertEquals(1, synchronizer.shapesCache.size(), "Shapes graph has been cached.");
+        Set<Quad> secondQuads = new HashSet<>(synchronizer.convertToQuads(graph, connector, second));
+        assertEquals(1, synchronizer.shapesCache.size(), "Identical shapes graph has been reused.");
+        Set<Node> firstGraphs = firstQuads.stream().map(Quad::getGraph).collect(Collectors.toSet());
+        Set<Node> secondGraphs = secondQuads.stream().map(Quad::getGraph).collect(Collectors.toSet());
+        assertEquals(2, firstGraphs.size(), "Shapes have been rebased onto their own graph.");
+        firstGraphs.retainAll(secondGraphs);
+        assertEquals(Set.of(graph), firstGraphs, "Offers have different shapes graphs.");
+        Set<Node> firstBlanks = firstQuads.stream().map(Quad::getObject).filter(Node::isBlank).collect(Collectors.toSet());
+        Set<Node> secondBlanks = secondQuads.stream().map(Quad::getObject).filter(Node::isBlank).collect(Collectors.toSet());
+        assertEquals(1, firstBlanks.size(), "Blank node has been rebased.");
+        firstBlanks.retainAll(secondBlanks);
+        assertTrue(firstBlanks.isEmpty(), "Blank nodes are not shared between graphs.");
+        assertEquals(firstQuads, new HashSet<>(synchronizer.convertToQuads(graph, connector, first)), "Rebased shapes are stable.");
+    }
+
+    @Test
+    public void testParallelRounds() throws Exception {
+        int parallelism = AgentConfig.DEFAULT_DATASPACE_SYNCPARALLEL;
+        for (int remotes = 8; remotes <= 128; remotes *= 4) {
+            CatalogStub stub = new CatalogStub(new CountDownLatch(parallelism), null, () -> { });
+            DataspaceSynchronizer syncer = createSynchronizer(remotes, 10000, stub.dataManagement);
+            try {
+                syncer.run();
+                assertEquals(parallelism, stub.peak.get(), "Catalogues are fetched in parallel, but not more than configured.");
+                assertEquals(5, countOffers(store, "http://remote" + (remotes - 1) + ":8282"), "Last remote has been synchronized.");
+            } finally {
+                syncer.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testSlowRemote() throws Exception {
+        CatalogStub stub = new CatalogStub(new CountDownLatch(0), "http://remote0:8282", () -> { });
+        DataspaceSynchronizer syncer = createSynchronizer(4, 500, stub.dataManagement);
+        try {
+            syncer.run();
+            assertTrue(stub.cancelled.await(10, TimeUnit.SECONDS), "Slow remote has been given up after its timeout.");
+            assertEquals(0, countOffers(store, "http://remote0:8282"), "Slow remote has not been synchronized.");
+            assertEquals(5, countOffers(store, "http://remote3:8282"), "Other remotes have been synchronized.");
+        } finally {
+            syncer.shutdown();
+        }
+    }
+
+    /**
+     * waits until a counter moves beyond a previous value
+     * @return whether the counter has moved in time
+     */
+    protected boolean awaitProgress(AtomicInteger counter, int previous) {
+        try {
+            for (int attempt = 0; attempt < 1000 && counter.get() <= previous; attempt++) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return counter.get() > previous;
+    }
+
+    @Test
+    public void testConcurrentQueriesAndRounds() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        AtomicInteger queries = new AtomicInteger();
+        AtomicInteger blockedFetches = new AtomicInteger();
+        // each fetch waits until a transaction has been written and a query has been answered meanwhile
+        CatalogStub stub = new CatalogStub(new CountDownLatch(0), null, () -> {
+            int previousWrites = writes.get();
+            int previousQueries = queries.get();
+            if (!awaitProgress(writes, previousWrites) || !awaitProgress(queries, previousQueries)) {
+                blockedFetches.incrementAndGet();
+            }
+        });
+        DataspaceSynchronizer syncer = createSynchronizer(16, 60000, stub.dataManagement);
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService clients = Executors.newFixedThreadPool(3);
+        try {
+            // a writer which updates the store while the rounds are running
+            Future<?> writer = clients.submit(() -> {
+                Node subject = NodeFactory.createURI("urn:test:writer");
+                Node predicate = NodeFactory.createURI("urn:test:counter");
+                for (int count = 0; running.get(); count++) {
+                    store.startTx();
+                    store.getDataSet().add(store.getDefaultGraph(), subject, predicate, NodeFactory.createLiteral(String.valueOf(count)));
+                    store.commit();
+                    writes.incrementAndGet();
+                    Thread.sleep(10);
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int reader = 0; reader < 2; reader++) {
+                readers.add(clients.submit(() -> {
+                    while (running.get()) {
+                        store.getDataSet().begin(TxnType.READ);
+                        try (QueryExec exec = QueryExec.dataset(store.getDataSet())
+                                .query("SELECT (COUNT(?offer) AS ?offers) WHERE { ?connector <https://w3id.org/catenax/ontology/common#offers> ?offer }")
+                                .build()) {
+                            assertTrue(exec.select().hasNext(), "Query has a result.");
+                        } finally {
+                            store.getDataSet().end();
+                        }
+                        queries.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            syncer.run();
+            syncer.run();
+            running.set(false);
+            writer.get();
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+            monitor.info(String.format("Two rounds ran while %d queries and %d concurrent write transactions have been processed.", queries.get(), writes.get()));
+            assertEquals(32, stub.versions.get(), "Each remote has been fetched once per round.");
+            assertEquals(0, blockedFetches.get(), "Writer and readers are not blocked by the remote calls.");
+            for (int remote = 0; remote < 16; remote++) {
+                assertEquals(5, countOffers(store, "http://remote" + remote + ":8282"), "Each remote has been synchronized once.");
+            }
+        } finally {
+            running.set(false);
+            clients.shutdownNow();
+            syncer.shutdown();
+        }
+    }
+
+}
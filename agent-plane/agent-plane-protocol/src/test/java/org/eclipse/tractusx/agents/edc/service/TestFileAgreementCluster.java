@@ -0,0 +1,124 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.types.TypeManager;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the coordination of replicas through a shared directory
+ */
+public class TestFileAgreementCluster {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    TypeManager typeManager = new TypeManager();
+
+    @Test
+    public void testClaim(@TempDir Path directory) {
+        FileAgreementCluster replicaA = new FileAgreementCluster(directory, typeManager, monitor);
+        FileAgreementCluster replicaB = new FileAgreementCluster(directory, typeManager, monitor);
+        assertTrue(replicaA.claim("asset", "a", 60000), "First claim succeeds.");
+        assertFalse(replicaB.claim("asset", "b", 60000), "Concurrent claim fails.");
+        assertTrue(replicaA.claim("asset", "a", 60000), "Claim can be renewed.");
+        assertTrue(replicaB.claim("other", "b", 60000), "Claims on other assets are independent.");
+        replicaB.release("asset", "b");
+        assertFalse(replicaB.claim("asset", "b", 60000), "Claim is not released by others.");
+        replicaA.release("asset", "a");
+        assertTrue(replicaB.claim("asset", "b", 60000), "Released claim can be taken.");
+        assertTrue(replicaA.claim("asset", "a", -1), "Expired claim can be taken over.");
+    }
+
+    @Test
+    public void testExpiredClaimRace(@TempDir Path directory) throws Exception {
+        FileAgreementCluster replicaA = new FileAgreementCluster(directory, typeManager, monitor);
+        FileAgreementCluster replicaB = new FileAgreementCluster(directory, typeManager, monitor);
+        Path claimFile = directory.resolve("claims").resolve(FileAgreementCluster.getFileName("asset") + ".claim");
+        CyclicBarrier start = new CyclicBarrier(2);
+        ExecutorService replicas = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 200; round++) {
+                // a crashed replica left an expired claim behind
+                Files.writeString(claimFile, "crashed");
+                Files.setLastModifiedTime(claimFile, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+                List<Future<Boolean>> claims = new ArrayList<>();
+                claims.add(replicas.submit(() -> {
+                    start.await();
+                    return replicaA.claim("asset", "a", 60000);
+                }));
+                claims.add(replicas.submit(() -> {
+                    start.await();
+                    return replicaB.claim("asset", "b", 60000);
+                }));
+                int winners = 0;
+                for (Future<Boolean> claim : claims) {
+                    if (claim.get()) {
+                        winners++;
+                    }
+                }
+                assertEquals(1, winners, "Exactly one replica took over the expired claim in round " + round + ".");
+            }
+        } finally {
+            replicas.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailClosed(@TempDir Path directory) throws Exception {
+        FileAgreementCluster replica = new FileAgreementCluster(directory, typeManager, monitor);
+        Path claimDirectory = directory.resolve("claims");
+        Files.delete(claimDirectory);
+        Files.writeString(claimDirectory, "not a directory");
+        assertFalse(replica.claim("asset", "a", 60000), "Claim which cannot be checked fails.");
+    }
+
+    @Test
+    public void testHandOver(@TempDir Path directory) {
+        FileAgreementCluster replicaA = new FileAgreementCluster(directory, typeManager, monitor);
+        FileAgreementCluster replicaB = new FileAgreementCluster(directory, typeManager, monitor);
+        EndpointDataReference reference = EndpointDataReference.Builder.newInstance()
+                .id("urn:transfer:1")
+                .endpoint("http://localhost:8080/asset")
+                .authKey("Authorization")
+                .authCode("token")
+                .build();
+        assertFalse(replicaA.deliver(reference), "Endpoint which nobody waits for is dropped.");
+        replicaB.expect("urn:transfer:1");
+        assertNull(replicaB.collect("urn:transfer:1"), "Nothing delivered yet.");
+        assertTrue(replicaA.deliver(reference), "Awaited endpoint is delivered.");
+        EndpointDataReference collected = replicaB.collect("urn:transfer:1");
+        assertNotNull(collected, "Delivered endpoint is collected.");
+        assertEquals("token", collected.getAuthCode(), "Delivered endpoint is complete.");
+        replicaB.forget("urn:transfer:1");
+        assertNull(replicaB.collect("urn:transfer:1"), "Forgotten endpoint is removed.");
+        assertFalse(replicaA.deliver(reference), "Forgotten transfer is not awaited anymore.");
+    }
+}
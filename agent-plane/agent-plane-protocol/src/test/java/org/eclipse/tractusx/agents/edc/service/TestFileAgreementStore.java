@@ -0,0 +1,185 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.service;
+
+import jakarta.json.Json;
+import org.eclipse.edc.spi.EdcException;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.types.TypeManager;
+import org.eclipse.edc.spi.types.domain.edr.EndpointDataReference;
+import org.eclipse.tractusx.agents.edc.AgreementRecord;
+import org.eclipse.tractusx.agents.edc.TestAgreementController;
+import org.eclipse.tractusx.agents.edc.model.ContractAgreement;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the file based agreement store
+ */
+public class TestFileAgreementStore {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    TypeManager typeManager = new TypeManager();
+    String key = Base64.getEncoder().encodeToString("0123456789abcdef".getBytes());
+
+    protected AgreementRecord createRecord(String asset, EndpointDataReference endpoint) {
+        ContractAgreement agreement = new ContractAgreement(Json.createObjectBuilder()
+                .add("@id", "agreement-" + asset)
+                .add("https://w3id.org/edc/v0.0.1/ns/assetId", asset)
+                .build());
+        return new AgreementRecord(asset, "http://localhost:8282", agreement,
+                Map.of("http://www.w3.org/1999/02/22-rdf-syntax-ns#type", Json.createValue("https://w3id.org/catenax/ontology/common#GraphAsset")),
+                endpoint);
+    }
+
+    protected EndpointDataReference createEndpoint(String asset, String token) {
+        return EndpointDataReference.Builder.newInstance()
+                .id("transfer-" + asset)
+                .endpoint("http://localhost:8080/" + asset)
+                .authKey("Authorization")
+                .authCode(token)
+                .properties(Map.of("https://w3id.org/edc/v0.0.1/ns/cid", "agreement-" + asset))
+                .build();
+    }
+
+    protected String readFiles(Path directory) throws IOException {
+        StringBuilder content = new StringBuilder();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toArray(Path[]::new)) {
+                content.append(Files.readString(file));
+            }
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void testReload(@TempDir Path directory) throws IOException {
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor, key);
+        String token = TestAgreementController.createToken(3600);
+        store.put(createRecord("asset", createEndpoint("asset", token)));
+        store.put(createRecord("negotiated", null));
+        assertFalse(readFiles(directory).contains(token.substring(token.indexOf('.') + 1)), "Token is not written in plain text.");
+
+        FileAgreementStore reloaded = new FileAgreementStore(directory, typeManager, monitor, key);
+        assertEquals(2, reloaded.getAll().size(), "All records have been reloaded.");
+        AgreementRecord record = reloaded.get("asset");
+        assertEquals("http://localhost:8282", record.getRemoteUrl(), "Connector reloaded.");
+        assertEquals("agreement-asset", record.getAgreement().getId(), "Agreement reloaded.");
+        assertEquals("asset", record.getAgreement().getAssetId(), "Agreement properties reloaded.");
+        assertEquals(1, record.getAssetProperties().size(), "Asset properties reloaded.");
+        assertEquals("transfer-asset", record.getEndpoint().getId(), "Endpoint reloaded.");
+        assertEquals(token, record.getEndpoint().getAuthCode(), "Endpoint token reloaded.");
+        assertEquals("agreement-asset", record.getEndpoint().getProperties().get("https://w3id.org/edc/v0.0.1/ns/cid"), "Endpoint properties reloaded.");
+        assertNull(reloaded.get("negotiated").getEndpoint(), "Record without endpoint reloaded.");
+    }
+
+    @Test
+    public void testNoKey(@TempDir Path directory) throws IOException {
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor);
+        store.put(createRecord("asset", createEndpoint("asset", TestAgreementController.createToken(3600))));
+        assertNotNull(store.get("asset").getEndpoint(), "Endpoint is kept in memory.");
+        assertFalse(readFiles(directory).contains("endpoint"), "Endpoint is not written without a key.");
+        AgreementRecord record = new FileAgreementStore(directory, typeManager, monitor).get("asset");
+        assertEquals("agreement-asset", record.getAgreement().getId(), "Agreement reloaded.");
+        assertNull(record.getEndpoint(), "Endpoint has to be transferred anew.");
+    }
+
+    @Test
+    public void testExpiredEndpoint(@TempDir Path directory) throws IOException {
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor, key);
+        store.put(createRecord("expired", createEndpoint("expired", TestAgreementController.createToken(-10))));
+        store.put(createRecord("invalid", createEndpoint("invalid", "token")));
+        assertFalse(readFiles(directory).contains("endpoint"), "Expired and invalid endpoints are not written.");
+        // a store which has written the endpoint while it was valid
+        FileAgreementStore previousStore = new FileAgreementStore(directory, typeManager, monitor, key) {
+            @Override
+            protected boolean isValid(EndpointDataReference endpoint) {
+                return true;
+            }
+        };
+        previousStore.put(createRecord("expiring", createEndpoint("expiring", TestAgreementController.createToken(-10))));
+        Path file = store.getFile("expiring");
+        assertTrue(Files.readString(file).contains("endpoint"), "Endpoint has been written.");
+        AgreementRecord record = new FileAgreementStore(directory, typeManager, monitor, key).get("expiring");
+        assertNotNull(record, "Agreement of an expired endpoint is kept.");
+        assertNull(record.getEndpoint(), "Expired endpoint is not reloaded.");
+        assertFalse(Files.readString(file).contains("endpoint"), "Expired endpoint has been purged from the file.");
+    }
+
+    @Test
+    public void testLegacyEndpoint(@TempDir Path directory) throws IOException {
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor, key);
+        Path file = store.getFile("asset");
+        String token = TestAgreementController.createToken(3600);
+        Files.writeString(file, Json.createObjectBuilder(store.toJson(createRecord("asset", null)))
+                .add("endpoint", Json.createObjectBuilder().add("id", "transfer-asset").add("authCode", token))
+                .build().toString());
+        AgreementRecord record = new FileAgreementStore(directory, typeManager, monitor, key).get("asset");
+        assertNull(record.getEndpoint(), "Unencrypted endpoint is ignored.");
+        assertFalse(Files.readString(file).contains(token), "Unencrypted endpoint has been purged from the file.");
+    }
+
+    @Test
+    public void testWrongKey(@TempDir Path directory) {
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor, key);
+        store.put(createRecord("asset", createEndpoint("asset", TestAgreementController.createToken(3600))));
+        String otherKey = Base64.getEncoder().encodeToString("fedcba9876543210".getBytes());
+        AgreementRecord record = new FileAgreementStore(directory, typeManager, monitor, otherKey).get("asset");
+        assertEquals("agreement-asset", record.getAgreement().getId(), "Agreement reloaded.");
+        assertNull(record.getEndpoint(), "Endpoint cannot be decrypted with another key.");
+        assertThrows(EdcException.class, () -> new FileAgreementStore(directory, typeManager, monitor, "no key"), "Invalid key is rejected.");
+    }
+
+    @Test
+    public void testRemove(@TempDir Path directory) throws IOException {
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor);
+        AgreementRecord record = createRecord("asset", null);
+        store.put(record);
+        assertFalse(store.remove("asset", createRecord("asset", null)), "Only the given record is removed.");
+        assertTrue(store.remove("asset", record), "Record removed.");
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count(), "File has been removed.");
+        }
+    }
+
+    @Test
+    public void testShared(@TempDir Path directory) {
+        FileAgreementStore storeA = new FileAgreementStore(directory, typeManager, monitor);
+        FileAgreementStore storeB = new FileAgreementStore(directory, typeManager, monitor);
+        AgreementRecord record = createRecord("asset", null);
+        storeA.put(record);
+        assertEquals("agreement-asset", storeB.get("asset").getAgreement().getId(), "Record of another store is visible.");
+        storeA.remove("asset", record);
+        assertNull(storeB.get("asset"), "Removal by another store is visible.");
+    }
+
+    @Test
+    public void testCorruptFile(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("corrupt.json"), "{ \"asset\": ");
+        FileAgreementStore store = new FileAgreementStore(directory, typeManager, monitor);
+        store.put(createRecord("asset", null));
+        assertEquals(1, new FileAgreementStore(directory, typeManager, monitor).getAll().size(), "Corrupt file has been ignored.");
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests (and benchmarks) the structural deduplication of service bindings
+ * against the former string-rendered keys
+ */
+public class TestBindingKey {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    List<Var> neededVars = List.of(Var.alloc("asset"), Var.alloc("label"), Var.alloc("count"));
+
+    /**
+     * @param size number of bindings
+     * @return bindings where a quarter are duplicates
+     */
+    protected List<Binding> createBindings(int size) {
+        List<Binding> bindings = new ArrayList<>(size);
+        for (int count = 0; count < size; count++) {
+            int value = count % (size - size / 4);
+            bindings.add(BindingFactory.binding(BindingFactory.binding(BindingFactory.binding(
+                    neededVars.get(0), NodeFactory.createURI("urn:asset:" + value)),
+                    neededVars.get(1), NodeFactory.createLiteral("Asset " + value, "en")),
+                    neededVars.get(2), NodeFactory.createLiteral(String.valueOf(value % 1000))));
+        }
+        return bindings;
+    }
+
+    protected String stringKey(Binding binding) {
+        StringBuilder keyBuilder = new StringBuilder();
+        for (Var neededVar : neededVars) {
+            Node node = binding.get(neededVar);
+            keyBuilder.append(neededVar.getVarName());
+            keyBuilder.append("#");
+            keyBuilder.append(node.toString());
+        }
+        return keyBuilder.toString();
+    }
+
+    protected BindingKey structuralKey(Binding binding) {
+        Node[] keyNodes = new Node[neededVars.size()];
+        for (int varIndex = 0; varIndex < keyNodes.length; varIndex++) {
+            keyNodes[varIndex] = binding.get(neededVars.get(varIndex));
+        }
+        return new BindingKey(keyNodes);
+    }
+
+    protected long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * deduplicates the bindings and reports time and allocation
+     * @return number of distinct bindings followed by allocated bytes
+     */
+    protected <K> long[] deduplicate(String name, List<Binding> bindings, Function<Binding, K> keyFunction) {
+        long startBytes = allocatedBytes();
+        long startTime = System.nanoTime();
+        Map<K, Integer> keyIds = new HashMap<>();
+        for (Binding binding : bindings) {
+            keyIds.computeIfAbsent(keyFunction.apply(binding), key -> keyIds.size());
+        }
+        long nanos = System.nanoTime() - startTime;
+        long bytes = allocatedBytes() - startBytes;
+        monitor.info(String.format("%s keys deduplicated %d bindings into %d in %d ms (%.0f bindings/s) allocating %d bytes.",
+                name, bindings.size(), keyIds.size(), nanos / 1000000, bindings.size() * 1.0e9 / nanos, bytes));
+        return new long[] { keyIds.size(), bytes };
+    }
+
+    @Test
+    public void testEquality() {
+        Node asset = NodeFactory.createURI("urn:asset:1");
+        assertEquals(new BindingKey(new Node[] { asset, null }), new BindingKey(new Node[] { NodeFactory.createURI("urn:asset:1"), null }), "Structurally equal keys match.");
+        assertNotEquals(new BindingKey(new Node[] { asset, null }), new BindingKey(new Node[] { null, asset }), "Positions matter.");
+        assertNotEquals(new BindingKey(new Node[] { NodeFactory.createLiteral("1") }), new BindingKey(new Node[] { NodeFactory.createURI("1") }), "Node kinds matter.");
+    }
+
+    @Test
+    public void testDeduplication() {
+        for (int size : new int[] { 10000, 100000, 1000000 }) {
+            List<Binding> bindings = createBindings(size);
+            // warm up both variants
+            deduplicate("Warmup string", bindings.subList(0, 1000), this::stringKey);
+            deduplicate("Warmup structural", bindings.subList(0, 1000), this::structuralKey);
+            long[] stringResult = deduplicate("String", bindings, this::stringKey);
+            long[] structuralResult = deduplicate("Structural", bindings, this::structuralKey);
+            assertEquals(size - size / 4, structuralResult[0], "Duplicates have been detected.");
+            assertEquals(stringResult[0], structuralResult[0], "Same deduplication as string keys.");
+            assertTrue(structuralResult[1] < stringResult[1], "Structural keys allocate less.");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpAsQuery;
+import org.apache.jena.sparql.algebra.op.OpProject;
+import org.apache.jena.sparql.algebra.op.OpSequence;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.algebra.table.TableData;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBuilder;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests (and benchmarks) the prepared remote service queries
+ * against a full serialization of each batch
+ */
+public class TestPreparedServiceQuery {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+
+    protected Op parse(String query) {
+        return Algebra.compile(QueryFactory.create(query));
+    }
+
+    protected List<Binding> rows(PreparedServiceQuery prepared, int size) {
+        List<Binding> rows = new ArrayList<>(size);
+        for (int count = 0; count < size; count++) {
+            BindingBuilder bb = BindingBuilder.create();
+            for (Var var : prepared.getNeededVars()) {
+                bb.add(var, NodeFactory.createURI("urn:" + var.getVarName() + ":" + count));
+            }
+            bb.add(prepared.getIdVar(), NodeFactory.createLiteral(String.valueOf(count)));
+            rows.add(bb.build());
+        }
+        return rows;
+    }
+
+    /**
+     * the former way of building the remote query per batch
+     */
+    protected Query serialize(Op subOp, PreparedServiceQuery prepared, List<Binding> rows) {
+        List<Var> tableVars = new ArrayList<>(prepared.getNeededVars());
+        tableVars.add(prepared.getIdVar());
+        OpTable opTable = OpTable.create(new TableData(tableVars, rows));
+        if (subOp instanceof OpProject) {
+            OpProject project = (OpProject) subOp;
+            List<Var> resultVars = new ArrayList<>(project.getVars());
+            resultVars.add(prepared.getIdVar());
+            return OpAsQuery.asQuery(new OpProject(OpSequence.create(opTable, project.getSubOp()), resultVars));
+        }
+        return OpAsQuery.asQuery(OpSequence.create(opTable, subOp));
+    }
+
+    protected void assertSameQuery(String query, Set<String> boundVars) {
+        Op subOp = parse(query);
+        PreparedServiceQuery prepared = new PreparedServiceQuery(subOp, boundVars);
+        List<Binding> rows = rows(prepared, 3);
+        Query expected = serialize(subOp, prepared, rows);
+        Query rendered = QueryFactory.create(prepared.render(rows));
+        assertEquals(Algebra.compile(expected), Algebra.compile(rendered), "Rendered query matches the full serialization.");
+    }
+
+    @Test
+    public void testPattern() {
+        assertSameQuery("SELECT * WHERE { ?asset <urn:hasPart> ?part. ?part <urn:hasName> ?name }", Set.of("asset", "part"));
+    }
+
+    @Test
+    public void testSubSelect() {
+        assertSameQuery("SELECT ?part ?name WHERE { ?asset <urn:hasPart> ?part. ?part <urn:hasName> ?name }", Set.of("asset"));
+    }
+
+    @Test
+    public void testNoInput() {
+        assertSameQuery("SELECT * WHERE { ?asset <urn:hasPart> ?part }", Set.of("other"));
+    }
+
+    @Test
+    public void testMarkerInQuery() {
+        String query = "SELECT * WHERE { ?asset <urn:hasPart> ?part. ?part <urn:hasName> <urn:cx:agent:values:placeholder> }";
+        assertFalse(new PreparedServiceQuery(parse(query), Set.of("asset")).isTemplated(), "Query mentioning the placeholder is not templated.");
+        assertSameQuery(query, Set.of("asset"));
+        assertTrue(new PreparedServiceQuery(parse("SELECT * WHERE { ?asset <urn:hasPart> ?part }"), Set.of("asset")).isTemplated(), "Other queries are templated.");
+    }
+
+    @Test
+    public void testUndef() {
+        Op subOp = parse("SELECT * WHERE { ?asset <urn:hasPart> ?part OPTIONAL { ?part <urn:hasName> ?name } }");
+        PreparedServiceQuery prepared = new PreparedServiceQuery(subOp, Set.of("asset", "name"));
+        BindingBuilder bb = BindingBuilder.create();
+        bb.add(Var.alloc("asset"), NodeFactory.createURI("urn:asset:0"));
+        bb.add(prepared.getIdVar(), NodeFactory.createLiteral("0"));
+        String rendered = prepared.render(List.of(bb.build()));
+        assertTrue(rendered.contains("UNDEF"), "Unbound input is rendered as UNDEF.");
+        assertNotNull(QueryFactory.create(rendered), "Rendered query is valid.");
+    }
+
+    @Test
+    public void testBatches() {
+        Op subOp = parse("SELECT ?part ?name WHERE { ?asset <urn:hasPart> ?part. ?part <urn:hasName> ?name FILTER(?name != \"unknown\") }");
+        Set<String> boundVars = Set.of("asset");
+        PreparedServiceQuery prepared = new PreparedServiceQuery(subOp, boundVars);
+        List<Binding> rows = rows(prepared, 1000);
+        int batches = 100;
+        long startTime = System.nanoTime();
+        for (int batch = 0; batch < batches; batch++) {
+            new PreparedServiceQuery(subOp, boundVars);
+            serialize(subOp, prepared, rows).toString();
+        }
+        long serializedNanos = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (int batch = 0; batch < batches; batch++) {
+            prepared.render(rows);
+        }
+        long renderedNanos = System.nanoTime() - startTime;
+        monitor.info(String.format("Prepared %d batches of %d bindings in %d ms when serialized, in %d ms when rendered into the template.",
+                batches, rows.size(), serializedNanos / 1000000, renderedNanos / 1000000));
+    }
+}
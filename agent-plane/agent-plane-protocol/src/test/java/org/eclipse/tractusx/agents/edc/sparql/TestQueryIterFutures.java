@@ -0,0 +1,231 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.apache.jena.sparql.util.Context;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.system.configuration.Config;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
+import org.eclipse.tractusx.agents.edc.AgentConfig;
+import org.eclipse.tractusx.agents.edc.ExecutorServiceFactory;
+import org.eclipse.tractusx.agents.edc.TestConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests (and benchmarks) the completion-ordered consumption of remote batches
+ */
+public class TestQueryIterFutures {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    TestConfig config = new TestConfig();
+    AgentConfig agentConfig = new AgentConfig(monitor, config);
+    ExecutorService threadedExecutor = Executors.newFixedThreadPool(50);
+
+    @AfterEach
+    public void tearDown() {
+        threadedExecutor.shutdownNow();
+    }
+
+    /**
+     * simulates a number of remote targets with different latencies
+     * @param targets number of parallel targets
+     * @param latency latency of the slowest target in milliseconds
+     * @return the iterator over all targets
+     */
+    protected QueryIterFutures simulate(int targets, long latency) {
+        return simulate(threadedExecutor, targets, latency);
+    }
+
+    /**
+     * simulates a number of remote targets with different latencies
+     * @param executor executor that runs the blocking calls
+     * @param targets number of parallel targets
+     * @param latency latency of the slowest target in milliseconds
+     * @return the iterator over all targets
+     */
+    protected QueryIterFutures simulate(ExecutorService executor, int targets, long latency) {
+        CompletionService<QueryIterator> completion = new ExecutorCompletionService<>(executor);
+        List<Future<QueryIterator>> futures = new ArrayList<>();
+        Var var = Var.alloc("target");
+        for (int target = 0; target < targets; target++) {
+            final long delay = latency * (target + 1) / targets;
+            final Binding binding = BindingFactory.binding(var, NodeFactory.createLiteral(String.valueOf(target)));
+            futures.add(completion.submit(() -> {
+                Thread.sleep(delay);
+                return QueryIterPlainWrapper.create(List.of(binding).iterator());
+            }));
+        }
+        return new QueryIterFutures(agentConfig, monitor, "source", agentConfig.getDefaultAsset(), var, new Context(), completion, futures);
+    }
+
+    /**
+     * the results of the fast targets are consumed while the slow target is still running
+     * and the last result is there as soon as the slowest target answered (and not one poll interval later)
+     */
+    @Test
+    public void testCompletionLatency() throws Exception {
+        Var var = Var.alloc("target");
+        for (int targets : new int[] { 1, 5, 10, 25, 50 }) {
+            CompletionService<QueryIterator> completion = new ExecutorCompletionService<>(threadedExecutor);
+            List<Future<QueryIterator>> futures = new ArrayList<>();
+            CountDownLatch fastRelease = new CountDownLatch(1);
+            CountDownLatch slowRelease = new CountDownLatch(1);
+            AtomicBoolean slowCompleted = new AtomicBoolean();
+            for (int target = 0; target < targets; target++) {
+                final boolean slow = target == targets - 1;
+                final Binding binding = BindingFactory.binding(var, NodeFactory.createLiteral(String.valueOf(target)));
+                futures.add(completion.submit(() -> {
+                    if (slow) {
+                        slowRelease.await(10, TimeUnit.SECONDS);
+                        slowCompleted.set(true);
+                    } else {
+                        fastRelease.await(10, TimeUnit.SECONDS);
+                    }
+                    return QueryIterPlainWrapper.create(List.of(binding).iterator());
+                }));
+            }
+            QueryIterFutures iterator = new QueryIterFutures(agentConfig, monitor, "source", agentConfig.getDefaultAsset(), var, new Context(), completion, futures);
+            fastRelease.countDown();
+            for (int count = 0; count < targets - 1; count++) {
+                assertTrue(iterator.hasNext(), "Got a fast target result.");
+                iterator.next();
+                assertFalse(slowCompleted.get(), "Fast results are consumed before the slow target completes.");
+            }
+            long startTime = System.nanoTime();
+            slowRelease.countDown();
+            assertTrue(iterator.hasNext(), "Got the slow target result.");
+            assertEquals(String.valueOf(targets - 1), iterator.next().get(var).getLiteralLexicalForm(), "Slow target comes last.");
+            monitor.info(String.format("Consumed %d parallel targets with an overhead of %d ms over the slowest target.", targets, (System.nanoTime() - startTime) / 1000000));
+            assertFalse(iterator.hasNext(), "Got all target results.");
+        }
+    }
+
+    /**
+     * hundreds of blocking remote calls run concurrently on the elastic federation executor
+     * (each call only returns once all of them have been started)
+     */
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        int targets = 200;
+        Config elasticConfig = ConfigFactory.fromMap(Map.of(AgentConfig.FEDERATION_EXECUTOR_MODE, ExecutorServiceFactory.ELASTIC_MODE,
+                AgentConfig.FEDERATION_EXECUTOR_THREADS, String.valueOf(targets)));
+        ExecutorService federationExecutor = ExecutorServiceFactory.createFederationExecutor(new AgentConfig(monitor, elasticConfig), monitor, threadedExecutor);
+        try {
+            CompletionService<QueryIterator> completion = new ExecutorCompletionService<>(federationExecutor);
+            List<Future<QueryIterator>> futures = new ArrayList<>();
+            CountDownLatch gate = new CountDownLatch(targets);
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            Var var = Var.alloc("target");
+            for (int target = 0; target < targets; target++) {
+                final Binding binding = BindingFactory.binding(var, NodeFactory.createLiteral(String.valueOf(target)));
+                futures.add(completion.submit(() -> {
+                    peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        gate.countDown();
+                        gate.await(10, TimeUnit.SECONDS);
+                        return QueryIterPlainWrapper.create(List.of(binding).iterator());
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }));
+            }
+            QueryIterFutures iterator = new QueryIterFutures(agentConfig, monitor, "source", agentConfig.getDefaultAsset(), var, new Context(), completion, futures);
+            int count = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(targets, count, "Got all target results.");
+            assertEquals(targets, peak.get(), "Blocking calls do not queue behind each other.");
+        } finally {
+            federationExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * results are delivered in the order of completion
+     */
+    @Test
+    public void testCompletionOrder() {
+        QueryIterFutures iterator = simulate(10, 500);
+        int last = -1;
+        while (iterator.hasNext()) {
+            int target = Integer.parseInt(iterator.next().get(Var.alloc("target")).getLiteralLexicalForm());
+            assertTrue(target > last, "Faster targets come first.");
+            last = target;
+        }
+        assertEquals(9, last, "Got the slowest target last.");
+    }
+
+    /**
+     * consumed batches are closed before moving on to the next one
+     */
+    @Test
+    public void testCloseConsumedBatches() {
+        CompletionService<QueryIterator> completion = new ExecutorCompletionService<>(threadedExecutor);
+        List<Future<QueryIterator>> futures = new ArrayList<>();
+        AtomicInteger closed = new AtomicInteger();
+        Var var = Var.alloc("target");
+        int targets = 5;
+        for (int target = 0; target < targets; target++) {
+            final Binding binding = BindingFactory.binding(var, NodeFactory.createLiteral(String.valueOf(target)));
+            // remote results need not close themselves once they are exhausted
+            Iterator<Binding> bindings = List.of(binding).iterator();
+            QueryIterator batch = Mockito.mock(QueryIterator.class);
+            Mockito.when(batch.hasNext()).thenAnswer(invocation -> bindings.hasNext());
+            Mockito.when(batch.next()).thenAnswer(invocation -> bindings.next());
+            Mockito.doAnswer(invocation -> closed.incrementAndGet()).when(batch).close();
+            futures.add(completion.submit(() -> batch));
+        }
+        QueryIterFutures iterator = new QueryIterFutures(agentConfig, monitor, "source", agentConfig.getDefaultAsset(), var, new Context(), completion, futures);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            assertEquals(count, closed.get(), "All previous batches have been closed.");
+            count++;
+        }
+        assertEquals(targets, count, "Got all target results.");
+        assertEquals(targets, closed.get(), "All batches have been closed.");
+        iterator.close();
+        assertEquals(targets, closed.get(), "Batches are closed only once.");
+    }
+}
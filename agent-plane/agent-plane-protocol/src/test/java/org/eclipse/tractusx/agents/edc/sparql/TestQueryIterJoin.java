@@ -0,0 +1,122 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBuilder;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests (and benchmarks) the join of remote results with the original bindings
+ */
+public class TestQueryIterJoin {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+    Var idVar = Var.alloc("binding");
+    Var assetVar = Var.alloc("asset");
+    Var partVar = Var.alloc("part");
+    Var valueVar = Var.alloc("value");
+
+    protected Binding remote(int id, String value) {
+        return BindingFactory.binding(BindingFactory.binding(BindingFactory.binding(
+                idVar, NodeFactory.createLiteral(String.valueOf(id))),
+                assetVar, NodeFactory.createURI("urn:asset:" + id)),
+                valueVar, NodeFactory.createLiteral(value));
+    }
+
+    protected Binding original(int id, int part) {
+        BindingBuilder bb = BindingBuilder.create();
+        bb.add(assetVar, NodeFactory.createURI("urn:asset:" + id));
+        bb.add(partVar, NodeFactory.createURI("urn:part:" + part));
+        bb.add(idVar, NodeFactory.createLiteral(String.valueOf(id)));
+        return bb.build();
+    }
+
+    protected long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    public void testJoin() {
+        List<List<Binding>> joinBindings = List.of(List.of(original(0, 0), original(0, 1)), List.of(original(1, 2)));
+        List<Binding> remote = List.of(remote(0, "a"), remote(1, "b"), remote(2, "unknown"), remote(0, "c"));
+        QueryIterJoin join = new QueryIterJoin(QueryIterPlainWrapper.create(remote.iterator()), joinBindings, idVar, null);
+        List<Binding> result = new ArrayList<>();
+        join.forEachRemaining(result::add);
+        assertEquals(5, result.size(), "Each remote binding joined with its originals.");
+        assertEquals("urn:part:0", result.get(0).get(partVar).getURI(), "Original variable is kept.");
+        assertEquals("a", result.get(0).get(valueVar).getLiteralLexicalForm(), "Remote variable is taken over.");
+        assertEquals("urn:part:1", result.get(1).get(partVar).getURI(), "Fan out to the second original.");
+        assertEquals("b", result.get(2).get(valueVar).getLiteralLexicalForm(), "Second id joined.");
+        assertEquals("c", result.get(4).get(valueVar).getLiteralLexicalForm(), "Repeated id joined again.");
+        assertEquals(4, result.get(0).size(), "No variable is duplicated.");
+        assertEquals(BindingBuilder.create(original(0, 0)).add(valueVar, NodeFactory.createLiteral("a")).build(), result.get(0), "View equals the copied binding.");
+    }
+
+    @Test
+    public void testJoinNonUniform() {
+        Binding withoutPart = BindingFactory.binding(idVar, NodeFactory.createLiteral("0"));
+        List<List<Binding>> joinBindings = List.of(List.of(original(0, 0), withoutPart));
+        QueryIterJoin join = new QueryIterJoin(QueryIterPlainWrapper.create(List.of(remote(0, "a")).iterator()), joinBindings, idVar, null);
+        List<Binding> result = new ArrayList<>();
+        join.forEachRemaining(result::add);
+        assertEquals(2, result.size(), "Joined both originals.");
+        assertEquals("urn:asset:0", result.get(0).get(assetVar).getURI(), "Original asset kept.");
+        assertEquals("urn:asset:0", result.get(1).get(assetVar).getURI(), "Remote asset taken over where the original lacked it.");
+        assertEquals(3, result.get(1).size(), "Only the missing variables are taken over.");
+    }
+
+    @Test
+    public void testFanOut() {
+        int ids = 1000;
+        int fanOut = 1000;
+        List<List<Binding>> joinBindings = new ArrayList<>(ids);
+        List<Binding> remote = new ArrayList<>(ids);
+        for (int id = 0; id < ids; id++) {
+            List<Binding> originals = new ArrayList<>(fanOut);
+            for (int part = 0; part < fanOut; part++) {
+                originals.add(original(id, part));
+            }
+            joinBindings.add(originals);
+            remote.add(remote(id, "value" + id));
+        }
+        long startBytes = allocatedBytes();
+        long startTime = System.nanoTime();
+        QueryIterJoin join = new QueryIterJoin(QueryIterPlainWrapper.create(remote.iterator()), joinBindings, idVar, null);
+        long count = 0;
+        while (join.hasNext()) {
+            if (join.next().get(valueVar) != null) {
+                count++;
+            }
+        }
+        long nanos = System.nanoTime() - startTime;
+        long bytes = allocatedBytes() - startBytes;
+        monitor.info(String.format("Joined %d rows in %d ms (%.0f rows/s) allocating %.1f bytes per row.", count, nanos / 1000000, count * 1.0e9 / nanos, (double) bytes / count));
+        assertEquals((long) ids * fanOut, count, "All rows have been joined.");
+    }
+}
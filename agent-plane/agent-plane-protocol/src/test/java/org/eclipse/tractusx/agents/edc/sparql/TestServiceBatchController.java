@@ -0,0 +1,152 @@
+// Copyright (c) 2022,2023 Contributors to the Eclipse Foundation
+//
+// See the NOTICE file(s) distributed with this work for additional
+// information regarding copyright ownership.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Apache License, Version 2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+// WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+// License for the specific language governing permissions and limitations
+// under the License.
+//
+// SPDX-License-Identifier: Apache-2.0
+package org.eclipse.tractusx.agents.edc.sparql;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.eclipse.edc.spi.monitor.ConsoleMonitor;
+import org.eclipse.edc.spi.system.configuration.ConfigFactory;
+import org.eclipse.tractusx.agents.edc.AgentConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the (adaptive) batch sizes of remote service calls
+ */
+public class TestServiceBatchController {
+
+    ConsoleMonitor monitor = new ConsoleMonitor();
+
+    protected ServiceBatchController createController(boolean adaptive, Map<String, String> settings) {
+        Map<String, String> properties = new HashMap<>(settings);
+        properties.put(AgentConfig.FEDERATION_SERVICE_BATCH_ADAPTIVE, String.valueOf(adaptive));
+        properties.putIfAbsent(AgentConfig.FEDERATION_SERVICE_BATCH_SIZE, "1000");
+        return new ServiceBatchController(new AgentConfig(monitor, ConfigFactory.fromMap(properties)), monitor);
+    }
+
+    @Test
+    public void testPatterns() {
+        ServiceBatchController controller = createController(false, Map.of(
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".b-tier.pattern", "https://.*tier-n.*",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".b-tier.max", "10",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".a-slow.pattern", "https://slow.*",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".a-slow.max", "5",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".c-any.pattern", "https://.*",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".c-any.max", "100",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".d-incomplete.max", "1"));
+        assertEquals(10, controller.getBatchSize("https://supplier/tier-n#asset"), "Matching pattern overrides the maximal batch size.");
+        assertEquals(5, controller.getBatchSize("https://slow/tier-n#asset"), "First service in name order wins.");
+        assertEquals(100, controller.getBatchSize("https://other#asset"), "Catch-all pattern applies to other https targets.");
+        assertEquals(1000, controller.getBatchSize("http://plain#asset"), "Unmatched target uses the global maximum.");
+        controller.recordSuccess("https://supplier/tier-n#asset", 10, 10, 100000);
+        assertEquals(10, controller.getBatchSize("https://supplier/tier-n#asset"), "Fixed batch sizes do not adapt.");
+    }
+
+    @Test
+    public void testFastTarget() {
+        ServiceBatchController controller = createController(true, Map.of(
+                AgentConfig.FEDERATION_SERVICE_BATCH_INITIAL, "64",
+                AgentConfig.FEDERATION_SERVICE_BATCH_LATENCY, "5000"));
+        String target = "https://fast#asset";
+        assertEquals(64, controller.getBatchSize(target), "Starts with the initial batch size.");
+        long[] expected = {128, 256, 512, 1000, 1000};
+        for (long size : expected) {
+            long bindings = controller.getBatchSize(target);
+            controller.recordSuccess(target, bindings, bindings, 10);
+            assertEquals(size, controller.getBatchSize(target), "Fast target grows by at most factor two up to the maximum.");
+        }
+    }
+
+    @Test
+    public void testSlowTarget() {
+        ServiceBatchController controller = createController(true, Map.of(
+                AgentConfig.FEDERATION_SERVICE_BATCH_INITIAL, "64",
+                AgentConfig.FEDERATION_SERVICE_BATCH_MIN, "4",
+                AgentConfig.FEDERATION_SERVICE_BATCH_LATENCY, "5000"));
+        String target = "https://slow#asset";
+        controller.recordSuccess(target, 64, 64, 10000);
+        assertEquals(32, controller.getBatchSize(target), "Slow target shrinks to meet the targeted latency.");
+        controller.recordSuccess(target, 32, 32, 1600);
+        // 0.7 * 156.25 + 0.3 * 50 = 124.375 ms per binding
+        assertEquals(124.375, controller.getStatistics(target).millisPerBinding, 0.001, "Latency is averaged exponentially.");
+        assertEquals(40, controller.getBatchSize(target), "Faster call lets the batch size recover gradually.");
+        controller.recordFailure(target, 40, 30000);
+        assertEquals(20, controller.getBatchSize(target), "Failure halves the batch size.");
+        for (int failure = 0; failure < 10; failure++) {
+            controller.recordFailure(target, 20, 30000);
+        }
+        assertEquals(4, controller.getBatchSize(target), "Batch size does not shrink below the minimum.");
+    }
+
+    @Test
+    public void testResultVolume() {
+        ServiceBatchController controller = createController(true, Map.of(
+                AgentConfig.FEDERATION_SERVICE_BATCH_INITIAL, "64",
+                AgentConfig.FEDERATION_SERVICE_BATCH_RESULTS, "640"));
+        String verbose = "https://verbose#asset";
+        controller.recordSuccess(verbose, 64, 6400, 10);
+        assertEquals(6, controller.getBatchSize(verbose), "Target with many results per binding shrinks to the targeted result volume.");
+        String empty = "https://empty#asset";
+        controller.recordSuccess(empty, 64, 0, 10);
+        assertEquals(128, controller.getBatchSize(empty), "Target without results is only limited by its latency.");
+        controller.recordSuccess(empty, 128, 0, 0);
+        assertEquals(256, controller.getBatchSize(empty), "Instant empty answers keep growing the batch size.");
+        assertEquals(64, controller.getBatchSize("https://unknown#asset"), "Targets adapt independently.");
+    }
+
+    @Test
+    public void testAdaptivePattern() {
+        ServiceBatchController controller = createController(true, Map.of(
+                AgentConfig.FEDERATION_SERVICE_BATCH_INITIAL, "64",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".small.pattern", "https://small.*",
+                AgentConfig.FEDERATION_SERVICE_BATCH_SERVICES + ".small.max", "16"));
+        String target = "https://small#asset";
+        assertEquals(16, controller.getBatchSize(target), "Initial batch size is bounded by the pattern.");
+        controller.recordSuccess(target, 16, 16, 1);
+        assertEquals(16, controller.getBatchSize(target), "Adaptive batch size does not grow beyond the pattern.");
+    }
+
+    @Test
+    public void testTrack() {
+        ServiceBatchController controller = createController(true, Map.of(AgentConfig.FEDERATION_SERVICE_BATCH_INITIAL, "64"));
+        String target = "https://tracked#asset";
+        Var var = Var.alloc("result");
+        List<Binding> results = List.of(BindingFactory.binding(var, NodeFactory.createLiteral("a")),
+                BindingFactory.binding(var, NodeFactory.createLiteral("b")),
+                BindingFactory.binding(var, NodeFactory.createLiteral("c")));
+        QueryIterator tracked = controller.track(target, 6, 10, QueryIterPlainWrapper.create(results.iterator()), null);
+        int count = 0;
+        while (tracked.hasNext()) {
+            tracked.next();
+            count++;
+        }
+        tracked.close();
+        assertEquals(3, count, "Tracking passes the results through.");
+        assertEquals(0.5, controller.getStatistics(target).resultsPerBinding, 0.001, "Result volume is recorded when the results are consumed.");
+        tracked.close();
+        assertEquals(128, controller.getBatchSize(target), "Result volume is recorded once.");
+    }
+}